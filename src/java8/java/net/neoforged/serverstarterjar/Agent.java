@@ -1,17 +1,84 @@
 package net.neoforged.serverstarterjar;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 
 class Agent {
+    static final String HEARTBEAT = "heartbeat=";
+    static final long HEARTBEAT_INTERVAL_MILLIS = 5000;
+
     static Instrumentation instrumentation;
 
-    // Used by -javaagent dev testing
+    // Used by -javaagent dev testing, and by the supervisor to receive the heartbeats of the server
     public static void premain(String args, Instrumentation instrumentation) {
         agentmain(args, instrumentation);
+        if (args != null && args.startsWith(HEARTBEAT)) {
+            startHeartbeat(new File(args.substring(HEARTBEAT.length())));
+        }
     }
 
     // Used by the Launcher-Agent-Class manifest entry
     public static void agentmain(String args, Instrumentation instrumentation) {
         Agent.instrumentation = instrumentation;
     }
+
+    /**
+     * Touch the given file periodically, for as long as the server makes progress, so that the supervisor can tell that it
+     * is responsive. The server makes progress when the threads keeping the JVM alive, such as the main thread and the server
+     * thread, use CPU time: a deadlocked server, or one waiting for something that never comes, uses none.
+     */
+    private static void startHeartbeat(final File file) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                    final boolean cpuTime = threads.isThreadCpuTimeSupported();
+                    if (cpuTime && !threads.isThreadCpuTimeEnabled()) {
+                        threads.setThreadCpuTimeEnabled(true);
+                    }
+                    if (!cpuTime) {
+                        System.err.println("The JVM does not measure the CPU time of threads, sending heartbeats to " + file + " regardless of progress");
+                    }
+
+                    long lastCpuTime = -1;
+                    while (true) {
+                        final long usedCpuTime = cpuTime ? nonDaemonCpuTime(threads) : 0;
+                        if (!cpuTime || usedCpuTime != lastCpuTime) {
+                            lastCpuTime = usedCpuTime;
+                            if (!file.exists()) file.createNewFile();
+                            file.setLastModified(System.currentTimeMillis());
+                        }
+                        Thread.sleep(HEARTBEAT_INTERVAL_MILLIS);
+                    }
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    System.err.println("Stopped sending heartbeats to " + file + ": " + e);
+                }
+            }
+        }, "serverstarter-heartbeat");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the CPU time used by the live non-daemon threads, in nanoseconds
+     */
+    private static long nonDaemonCpuTime(ThreadMXBean threads) {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        Thread[] all = new Thread[root.activeCount() + 16];
+        final int count = root.enumerate(all, true);
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            if (all[i].isDaemon()) continue;
+            // -1 if the thread died in the meantime
+            total += Math.max(0, threads.getThreadCpuTime(all[i].getId()));
+        }
+        return total;
+    }
 }
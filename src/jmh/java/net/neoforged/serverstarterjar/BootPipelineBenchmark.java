@@ -0,0 +1,58 @@
+package net.neoforged.serverstarterjar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the stages of the boot pipeline that install the module and class paths of the server.
+ * <p>
+ * These stages permanently modify the system class loader, so each of them can only be measured once per JVM:
+ * every fork measures a single cold invocation, like the one the starter performs.
+ * The generated jars are shared across forks, and kept in {@code build/jmh-fixtures}.
+ * <p>
+ * This benchmark requires the starter to be attached as an agent, which the {@code jmh} Gradle task takes care of.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class BootPipelineBenchmark {
+    @Param({"50", "200", "1000"})
+    public int jars;
+
+    private Path[] paths;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if (Agent.instrumentation == null) {
+            throw new IllegalStateException("The benchmark needs to be run with the starter as a Java agent");
+        }
+        paths = Fixtures.sharedModuleJars(jars);
+    }
+
+    @Benchmark
+    public ModuleLayer.Controller installModulePath() throws Throwable {
+        return Main.installModulePath(paths, null, null, null, null);
+    }
+
+    @Benchmark
+    public void addToClassPath() throws Throwable {
+        Main.addToClassPath(Arrays.asList(paths));
+    }
+}
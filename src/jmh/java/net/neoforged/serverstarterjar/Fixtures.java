@@ -0,0 +1,182 @@
+package net.neoforged.serverstarterjar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic fixtures used by the benchmarks.
+ */
+final class Fixtures {
+    /**
+     * Where the fixtures shared across benchmark forks are generated, so that each fork doesn't have to generate them again.
+     */
+    private static final Path SHARED = Path.of("build", "jmh-fixtures");
+
+    private Fixtures() {}
+
+    /**
+     * {@return {@code count} generated module jars, shared across benchmark runs}
+     */
+    static Path[] sharedModuleJars(int count) throws IOException {
+        var directory = SHARED.resolve("modules-" + count).toAbsolutePath();
+        var marker = directory.resolve("complete");
+        if (Files.exists(marker)) {
+            var jars = new Path[count];
+            for (int i = 0; i < count; i++) {
+                jars[i] = directory.resolve("module" + i + ".jar");
+            }
+            return jars;
+        }
+
+        delete(directory);
+        var jars = createModuleJars(directory, count);
+        Files.createFile(marker);
+        return jars;
+    }
+
+    /**
+     * Generate the run script and argument files of a server of the given loader in the directory.
+     * The argument files are referenced by absolute paths, as the benchmarks can't change their working directory.
+     *
+     * @return the run script
+     */
+    static Path createServer(Path directory, Loader loader) throws IOException {
+        Files.createDirectories(directory);
+        var userJvmArgs = directory.resolve("user_jvm_args.txt");
+        Files.writeString(userJvmArgs, """
+                # Xmx and Xms set the maximum and minimum RAM usage, respectively.
+                # They can take any number, followed by an M or a G.
+                # M means Megabyte, G means Gigabyte.
+                # For example, to set the maximum to 3GB: -Xmx3G
+                # To set the minimum to 2.5GB: -Xms2500M
+
+                # A good default for a modded server is 4GB.
+                # Uncomment the next line to set it.
+                -Xmx4G
+                """);
+
+        var argsFile = directory.resolve(loader.argsFolder).resolve("unix_args.txt");
+        Files.createDirectories(argsFile.getParent());
+        Files.writeString(argsFile, loader.argsFile());
+
+        var runScript = directory.resolve("run.sh");
+        Files.writeString(runScript, "#!/usr/bin/env sh\n" +
+                "# " + loader.displayName + " requires a configured set of both JVM and program arguments.\n" +
+                "# Add custom JVM arguments to the user_jvm_args.txt\n" +
+                "# Add custom program arguments {such as nogui} to this file in the next line before the \"$@\" or\n" +
+                "#  pass them to this script directly\n" +
+                "java @" + userJvmArgs + " @" + argsFile + " \"$@\"\n");
+        return runScript;
+    }
+
+    enum Loader {
+        NEOFORGE("NeoForge", "libraries/net/neoforged/neoforge/21.1.145", 45, 60,
+                "-Djava.net.preferIPv6Addresses=system -DignoreList=client-extra,neoforge- -DlibraryDirectory=libraries",
+                "cpw.mods.bootstraplauncher.BootstrapLauncher --launchTarget forgeserver --fml.neoForgeVersion 21.1.145 --fml.fmlVersion 4.0.34 --fml.mcVersion 1.21.1 --fml.neoFormVersion 20240808.144430"),
+        FORGE("Forge", "libraries/net/minecraftforge/forge/1.20.1-47.3.0", 12, 95,
+                "-Djava.net.preferIPv6Addresses=system -DignoreList=bootstraplauncher,securejarhandler,asm-commons,asm-util,asm-analysis,asm-tree,asm,JarJarFileSystems,client-extra,fmlcore,javafmllanguage,lowcodelanguage,mclanguage,forge-,forge-1.20.1-47.3.0.jar -DmergeModules=jna-5.10.0.jar,jna-platform-5.10.0.jar -DlibraryDirectory=libraries",
+                "cpw.mods.bootstraplauncher.BootstrapLauncher --launchTarget forgeserver --fml.forgeVersion 47.3.0 --fml.mcVersion 1.20.1 --fml.forgeGroup net.minecraftforge --fml.mcpVersion 20230612.114412"),
+        /**
+         * A NeoForge server of a modpack which adds its own libraries to the module and class paths.
+         */
+        MODPACK("NeoForge", "libraries/net/neoforged/neoforge/21.1.145", 1000, 3000,
+                NEOFORGE.properties, NEOFORGE.main);
+
+        private final String displayName;
+        private final String argsFolder;
+        private final int modules;
+        private final int classPath;
+        private final String properties;
+        private final String main;
+
+        Loader(String displayName, String argsFolder, int modules, int classPath, String properties, String main) {
+            this.displayName = displayName;
+            this.argsFolder = argsFolder;
+            this.modules = modules;
+            this.classPath = classPath;
+            this.properties = properties;
+            this.main = main;
+        }
+
+        /**
+         * {@return an argument file shaped like the one the installer of the loader generates}
+         */
+        String argsFile() {
+            var args = new StringBuilder();
+            args.append("-p ").append(libraries("module", modules, ":")).append('\n');
+            args.append("--add-modules ALL-MODULE-PATH\n");
+            args.append("--add-opens java.base/java.util.jar=cpw.mods.securejarhandler\n");
+            args.append("--add-opens java.base/java.lang.invoke=cpw.mods.securejarhandler\n");
+            args.append("--add-exports java.base/sun.security.util=cpw.mods.securejarhandler\n");
+            args.append("--add-exports jdk.naming.dns/com.sun.jndi.dns=java.naming\n");
+            for (String property : properties.split(" ")) {
+                args.append(property).append('\n');
+            }
+            if (this == FORGE) {
+                args.append("-DlegacyClassPath=").append(libraries("library", classPath, ":")).append('\n');
+            }
+            args.append("-cp ").append(libraries("library", classPath, ":")).append('\n');
+            for (String part : main.split(" ")) {
+                args.append(part).append(part.startsWith("--") ? ' ' : '\n');
+            }
+            return args.toString();
+        }
+
+        private static String libraries(String kind, int count, String separator) {
+            var libraries = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                if (i > 0) libraries.append(separator);
+                libraries.append("libraries/org/example/").append(kind).append(i).append("/1.").append(i).append(".0/")
+                        .append(kind).append(i).append("-1.").append(i).append(".0.jar");
+            }
+            return libraries.toString();
+        }
+    }
+
+    /**
+     * Generate {@code count} automatic module jars in the given directory, each with a few packages of fake classes.
+     */
+    static Path[] createModuleJars(Path directory, int count) throws IOException {
+        Files.createDirectories(directory);
+        var random = new Random(count);
+        var jars = new Path[count];
+        for (int i = 0; i < count; i++) {
+            var moduleName = "fixture.module" + i;
+            var jar = directory.resolve("module" + i + ".jar");
+
+            var manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().putValue("Automatic-Module-Name", moduleName);
+            try (var out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+                for (int pkg = 0; pkg < 5; pkg++) {
+                    for (int cls = 0; cls < 20; cls++) {
+                        out.putNextEntry(new JarEntry(moduleName.replace('.', '/') + "/pkg" + pkg + "/Class" + cls + ".class"));
+                        var contents = new byte[512 + random.nextInt(2048)];
+                        random.nextBytes(contents);
+                        out.write(contents);
+                        out.closeEntry();
+                    }
+                }
+            }
+            jars[i] = jar;
+        }
+        return jars;
+    }
+
+    static void delete(Path directory) throws IOException {
+        if (Files.notExists(directory)) return;
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
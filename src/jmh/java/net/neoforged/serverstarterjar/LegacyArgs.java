@@ -0,0 +1,98 @@
+package net.neoforged.serverstarterjar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy of the argument parsing of the starter before it was made single pass, which the benchmarks compare against.
+ */
+final class LegacyArgs {
+    private static final char ESCAPE = (char) 92; // \\
+    private static final char SPACE = ' ';
+    private static final char QUOTES = '"';
+    private static final char SINGLE_QUOTES = '\'';
+
+    private LegacyArgs() {}
+
+    static List<String> toArgs(String str) {
+        final List<String> args = new ArrayList<>();
+        StringBuilder current = null;
+        char enclosing = 0;
+
+        final char[] chars = str.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            final boolean isEscaped = i > 0 && chars[i - 1] == ESCAPE;
+            final char ch = chars[i];
+            if (ch == SPACE && enclosing == 0 && current != null) {
+                args.add(current.toString());
+                current = null;
+                continue;
+            }
+
+            if (!isEscaped) {
+                if (ch == enclosing) {
+                    enclosing = 0;
+                    continue;
+                } else if ((ch == QUOTES || ch == SINGLE_QUOTES) && (current == null || current.toString().isBlank())) {
+                    current = new StringBuilder();
+                    enclosing = ch;
+                    continue;
+                }
+            }
+
+            if (ch != ESCAPE || (i < chars.length - 1 && chars[i + 1] != QUOTES && chars[i + 1] != SINGLE_QUOTES)) {
+                if (current == null) current = new StringBuilder();
+                current.append(ch);
+            }
+        }
+
+        if (current != null && enclosing == 0) {
+            args.add(current.toString());
+        }
+
+        return args;
+    }
+
+    static Main.RunScript parseScript(Path runPath) throws IOException {
+        List<String> command = null;
+        for (String line : Files.readAllLines(runPath)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            command = toArgs(line);
+            break;
+        }
+        if (command == null) throw new IOException("No command in " + runPath);
+
+        var argFiles = new ArrayList<Path>();
+        var startupArgs = new ArrayList<>(command);
+        startupArgs.remove(0);
+        startupArgs.remove("$@");
+
+        for (String part : command) {
+            if (part.startsWith("@")) {
+                var idx = startupArgs.indexOf(part);
+                startupArgs.remove(idx);
+
+                var argFile = Path.of(part.substring(1));
+                argFiles.add(argFile.toAbsolutePath());
+
+                var itr = Files.readAllLines(argFile)
+                        .stream().filter(str -> !str.startsWith("#"))
+                        .flatMap(arg -> toArgs(arg).stream()).iterator();
+                while (itr.hasNext()) {
+                    startupArgs.add(idx++, itr.next());
+                }
+            }
+        }
+
+        var jvmOptions = startupArgs.stream().filter(LegacyArgs::isJvmOption).toList();
+        startupArgs.removeIf(LegacyArgs::isJvmOption);
+        return new Main.RunScript(startupArgs, jvmOptions, argFiles);
+    }
+
+    private static boolean isJvmOption(String arg) {
+        return arg.startsWith("-X") || arg.startsWith("-agentlib:");
+    }
+}
@@ -0,0 +1,69 @@
+package net.neoforged.serverstarterjar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the time it takes to create a module layer out of a freshly started JVM
+ * when the module path is scanned sequentially by the JDK, and in parallel by the {@link ParallelModuleFinder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class ModuleFinderBenchmark {
+    @Param({"50"})
+    public int modules;
+
+    private Path directory;
+    private Path[] modulePath;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("module-finder-benchmark");
+        modulePath = Fixtures.createModuleJars(directory, modules);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public ModuleLayer sequential() {
+        return defineLayer(ModuleFinder.of(modulePath));
+    }
+
+    @Benchmark
+    public ModuleLayer parallel() {
+        return defineLayer(ParallelModuleFinder.of(modulePath));
+    }
+
+    private static ModuleLayer defineLayer(ModuleFinder finder) {
+        var names = finder.findAll().stream().map(ModuleReference::descriptor).map(d -> d.name()).collect(Collectors.toSet());
+        var configuration = ModuleLayer.boot().configuration().resolve(finder, ModuleFinder.of(), names);
+        return ModuleLayer.defineModulesWithOneLoader(configuration, List.of(ModuleLayer.boot()), ClassLoader.getSystemClassLoader()).layer();
+    }
+}
@@ -0,0 +1,117 @@
+package net.neoforged.serverstarterjar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.module.Configuration;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Compares redefining a module once per opened package, as the starter used to do for every {@code --add-opens},
+ * with a single redefinition carrying all of the packages, as {@link ModuleRedefinitions} does.
+ * <p>
+ * Packages that are open already are not redefined again, so every invocation opens the packages of a new module.
+ * <p>
+ * This benchmark requires the starter to be attached as an agent, which the {@code jmh} Gradle task takes care of.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(2)
+public class ModuleRedefinitionBenchmark {
+    @Param({"10", "40"})
+    public int packages;
+
+    private Module target;
+    private List<String> packageNames;
+    private Module source;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (Agent.instrumentation == null) {
+            throw new IllegalStateException("The benchmark needs to be run with the starter as a Java agent");
+        }
+        target = ModuleRedefinitionBenchmark.class.getModule();
+        packageNames = IntStream.range(0, packages).mapToObj(i -> "benchmark.p" + i).toList();
+    }
+
+    @Setup(Level.Invocation)
+    public void defineSource() {
+        var descriptor = ModuleDescriptor.newModule("benchmark.source").packages(new HashSet<>(packageNames)).build();
+        var reference = new ModuleReference(descriptor, URI.create("benchmark:source")) {
+            @Override
+            public ModuleReader open() {
+                return new ModuleReader() {
+                    @Override
+                    public Optional<URI> find(String name) {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public Stream<String> list() {
+                        return Stream.empty();
+                    }
+
+                    @Override
+                    public void close() {}
+                };
+            }
+        };
+        var finder = new ModuleFinder() {
+            @Override
+            public Optional<ModuleReference> find(String name) {
+                return name.equals(descriptor.name()) ? Optional.of(reference) : Optional.empty();
+            }
+
+            @Override
+            public Set<ModuleReference> findAll() {
+                return Set.of(reference);
+            }
+        };
+        var configuration = Configuration.resolve(finder, List.of(ModuleLayer.boot().configuration()), ModuleFinder.of(), Set.of(descriptor.name()));
+        // Each module gets a loader of its own, as a loader can only define a package once
+        var loader = new ClassLoader(null) {};
+        source = ModuleLayer.defineModules(configuration, List.of(ModuleLayer.boot()), name -> loader).layer()
+                .findModule(descriptor.name()).orElseThrow();
+    }
+
+    @Benchmark
+    public void perPackage() {
+        for (String pkg : packageNames) {
+            Agent.instrumentation.redefineModule(source, Set.of(), Map.of(), Map.of(pkg, Set.of(target)), Set.of(), Map.of());
+        }
+    }
+
+    @Benchmark
+    public int batched() {
+        var redefinitions = new ModuleRedefinitions();
+        for (String pkg : packageNames) {
+            redefinitions.open(source, pkg, target);
+        }
+        return redefinitions.apply(Agent.instrumentation);
+    }
+}
@@ -0,0 +1,79 @@
+package net.neoforged.serverstarterjar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of the run script of a server, and of the lines of its argument files on their own,
+ * against the implementation the starter used before (see {@link LegacyArgs}).
+ * <p>
+ * This benchmark requires the starter to be attached as an agent, which the {@code jmh} Gradle task takes care of.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(2)
+public class ScriptBenchmark {
+    @Param({"NEOFORGE", "FORGE", "MODPACK"})
+    public Fixtures.Loader loader;
+
+    private Path directory;
+    private Path runScript;
+    private List<String> argsFileLines;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("script-benchmark");
+        runScript = Fixtures.createServer(directory, loader);
+        argsFileLines = loader.argsFile().lines().toList();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public void toArgs(Blackhole blackhole) {
+        for (String line : argsFileLines) {
+            blackhole.consume(Utils.toArgs(line));
+        }
+    }
+
+    @Benchmark
+    public void toArgsLegacy(Blackhole blackhole) {
+        for (String line : argsFileLines) {
+            blackhole.consume(LegacyArgs.toArgs(line));
+        }
+    }
+
+    @Benchmark
+    public Main.RunScript parseScript() throws IOException {
+        return Main.parseScript(runScript);
+    }
+
+    @Benchmark
+    public Main.RunScript parseScriptLegacy() throws IOException {
+        return LegacyArgs.parseScript(runScript);
+    }
+}
@@ -0,0 +1,289 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A content-addressed store of the artifacts the starter and the installer download, shared by every server instance
+ * pointed at it so that the same installer and libraries are only downloaded once per machine.
+ * <p>
+ * Artifacts are stored under {@code <algorithm>/<first two characters of the hash>/<hash>}, and are hard linked (or copied,
+ * if the file system does not support hard links) into the server folders. The URLs that were downloaded are remembered
+ * along with the hash of their content, so that a cached download does not need the network at all.
+ * <p>
+ * The store is capped in size: when it grows past the cap, the artifacts that were least recently used are evicted.
+ * The time an artifact was last used is tracked by a {@code .used} marker file rather than the artifact itself, as
+ * touching the artifact would also change the modification time of every hard link to it.
+ */
+final class ArtifactCache {
+    static final long DEFAULT_MAX_SIZE = 10L * 1024 * 1024 * 1024;
+
+    private static final String USED_SUFFIX = ".used";
+    private static final String URLS = "urls";
+
+    private final Path root;
+    private final long maxSize;
+
+    ArtifactCache(Path root, long maxSize) {
+        this.root = root.toAbsolutePath();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * {@return the checksum of the content last downloaded from the given URL, if known}
+     */
+    @Nullable
+    Downloader.Checksum checksumOf(URL url) {
+        var file = urlFile(url);
+        try {
+            var split = Files.readString(file).trim().split(" ");
+            return split.length == 2 ? new Downloader.Checksum(split[0], split[1]) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void rememberUrl(URL url, Downloader.Checksum checksum) throws IOException {
+        var file = urlFile(url);
+        Files.createDirectories(file.getParent());
+        var temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temp, checksum.algorithm() + " " + checksum.hash());
+            move(temp, file);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Link or copy the artifact with the given checksum to the target, if it is in the cache.
+     * The artifact is verified before being used, and discarded if it was corrupted.
+     *
+     * @return whether the artifact was in the cache
+     */
+    boolean copyTo(Downloader.Checksum checksum, Path target) throws IOException {
+        var entry = entry(checksum);
+        if (Files.notExists(entry)) return false;
+
+        if (!checksum.matches(entry)) {
+            System.err.println("Discarding corrupted artifact " + entry + " from the artifact cache");
+            Files.deleteIfExists(entry);
+            Files.deleteIfExists(usedMarker(entry));
+            return false;
+        }
+
+        var parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, entry);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Hard links don't work across file systems, or on some file systems at all
+            var temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+            try {
+                Files.copy(entry, temp, StandardCopyOption.REPLACE_EXISTING);
+                move(temp, target);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        markUsed(entry);
+        return true;
+    }
+
+    /**
+     * Store the given file in the cache, under the given checksum which the caller has verified.
+     */
+    void store(Downloader.Checksum checksum, Path file) throws IOException {
+        var entry = entry(checksum);
+        if (Files.exists(entry)) {
+            markUsed(entry);
+            return;
+        }
+
+        Files.createDirectories(entry.getParent());
+        var temp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            move(temp, entry);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        markUsed(entry);
+    }
+
+    /**
+     * Evict the least recently used artifacts until the cache fits in its maximum size.
+     */
+    void evict() {
+        var artifacts = new ArrayList<Artifact>();
+        long total = 0;
+        try (var stream = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                if (!Files.isRegularFile(path) || path.startsWith(root.resolve(URLS))) continue;
+                var name = path.getFileName().toString();
+                if (name.endsWith(USED_SUFFIX) || name.endsWith(".tmp")) continue;
+
+                var marker = usedMarker(path);
+                var used = Files.exists(marker) ? Files.getLastModifiedTime(marker) : Files.getLastModifiedTime(path);
+                var size = Files.size(path);
+                artifacts.add(new Artifact(path, size, used));
+                total += size;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Another instance may be evicting at the same time
+            System.err.println("Failed to scan artifact cache " + root + ": " + e);
+            return;
+        }
+
+        if (total <= maxSize) return;
+
+        artifacts.sort(Comparator.comparing(Artifact::used));
+        int evicted = 0;
+        for (Artifact artifact : artifacts) {
+            if (total <= maxSize) break;
+            try {
+                Files.deleteIfExists(artifact.path());
+                Files.deleteIfExists(usedMarker(artifact.path()));
+                total -= artifact.size();
+                evicted++;
+            } catch (IOException e) {
+                System.err.println("Failed to evict " + artifact.path() + " from the artifact cache: " + e);
+            }
+        }
+        System.err.println("Evicted " + evicted + " artifacts from the artifact cache " + root);
+    }
+
+    /**
+     * Link the libraries of the install profile that are in the cache into the libraries folder, so that the installer
+     * finds them with a valid checksum and skips downloading them.
+     *
+     * @return how many libraries were provided by the cache
+     */
+    int provide(List<InstallProfile.Library> libraries, Path librariesDir) {
+        int provided = 0;
+        for (InstallProfile.Library library : libraries) {
+            if (library.sha1() == null) continue;
+            var target = library.resolve(librariesDir);
+            var checksum = new Downloader.Checksum("SHA-1", library.sha1());
+            try {
+                if (Files.exists(target) && checksum.matches(target)) continue;
+                if (copyTo(checksum, target)) {
+                    provided++;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to provide library " + library.path() + " from the artifact cache: " + e);
+            }
+        }
+        return provided;
+    }
+
+    /**
+     * Store the libraries of the install profile that the installer downloaded in the cache.
+     *
+     * @return how many libraries were added to the cache
+     */
+    int collect(List<InstallProfile.Library> libraries, Path librariesDir) {
+        int collected = 0;
+        for (InstallProfile.Library library : libraries) {
+            if (library.sha1() == null) continue;
+            var file = library.resolve(librariesDir);
+            var checksum = new Downloader.Checksum("SHA-1", library.sha1());
+            try {
+                if (Files.exists(entry(checksum))) {
+                    markUsed(entry(checksum));
+                } else if (Files.exists(file) && checksum.matches(file)) {
+                    store(checksum, file);
+                    collected++;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to store library " + library.path() + " in the artifact cache: " + e);
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * Parse a size such as {@code 512M} or {@code 10G}.
+     */
+    static long parseSize(String size) {
+        var normalized = size.trim().toUpperCase(Locale.ROOT);
+        if (normalized.endsWith("B")) normalized = normalized.substring(0, normalized.length() - 1);
+        long multiplier = 1;
+        if (!normalized.isEmpty()) {
+            switch (normalized.charAt(normalized.length() - 1)) {
+                case 'K' -> multiplier = 1024;
+                case 'M' -> multiplier = 1024 * 1024;
+                case 'G' -> multiplier = 1024 * 1024 * 1024;
+                case 'T' -> multiplier = 1024L * 1024 * 1024 * 1024;
+            }
+        }
+        if (multiplier != 1) normalized = normalized.substring(0, normalized.length() - 1);
+        return Long.parseLong(normalized.trim()) * multiplier;
+    }
+
+    private Path entry(Downloader.Checksum checksum) {
+        var hash = checksum.hash().toLowerCase(Locale.ROOT);
+        return root.resolve(checksum.algorithm().replace("-", "").toLowerCase(Locale.ROOT))
+                .resolve(hash.substring(0, 2))
+                .resolve(hash);
+    }
+
+    private Path urlFile(URL url) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-1").digest(url.toString().getBytes(StandardCharsets.UTF_8));
+            var name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return root.resolve(URLS).resolve(name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path usedMarker(Path entry) {
+        return entry.resolveSibling(entry.getFileName() + USED_SUFFIX);
+    }
+
+    private static void markUsed(Path entry) {
+        var marker = usedMarker(entry);
+        try {
+            try {
+                Files.createFile(marker);
+            } catch (FileAlreadyExistsException ignored) {
+                Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (NoSuchFileException ignored) {
+            // The artifact was evicted by another instance in the meantime
+        } catch (IOException e) {
+            System.err.println("Failed to mark " + entry + " as used: " + e);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private record Artifact(Path path, long size, FileTime used) {}
+}
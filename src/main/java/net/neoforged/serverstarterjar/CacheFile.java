@@ -0,0 +1,116 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The layout shared by the cache files of the starter: a magic number identifying the cache and the version of its
+ * format, followed for the caches that are only valid for given inputs by a {@link Fingerprint} of them, and then by the
+ * contents of the cache.
+ * <p>
+ * A missing file, or a file of another cache, version or fingerprint, reads as no cache at all. A file that cannot be read
+ * is reported and discarded, so that the cache is simply built again.
+ *
+ * @param magic       the number identifying the cache
+ * @param version     the version of the format of the contents, to be increased whenever it changes
+ * @param description what the file holds, for messages
+ */
+record CacheFile(int magic, int version, String description) {
+    /**
+     * The size of the header of a fingerprinted cache file.
+     */
+    static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+
+    /**
+     * {@return the contents read from the given file by the reader, or {@code null} if there is no valid cache}
+     */
+    @Nullable
+    <T> T read(Path file, DataReader<T> reader) {
+        return read(file, false, 0, reader);
+    }
+
+    /**
+     * {@return the contents read from the given file by the reader, or {@code null} if there is no valid cache of the inputs
+     * with the given fingerprint}
+     */
+    @Nullable
+    <T> T read(Path file, long fingerprint, DataReader<T> reader) {
+        return read(file, true, fingerprint, reader);
+    }
+
+    @Nullable
+    private <T> T read(Path file, boolean fingerprinted, long fingerprint, DataReader<T> reader) {
+        if (Files.notExists(file)) return null;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != magic || in.readInt() != version) return null;
+            if (fingerprinted && in.readLong() != fingerprint) return null;
+            return reader.read(in);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Discarding unreadable " + description + " " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * {@return whether the given header, read from the start of a file, is the header of a cache of the inputs with the
+     * given fingerprint}
+     * This is for the caches which are not read as a stream.
+     */
+    boolean matches(ByteBuffer header, long fingerprint) {
+        return header.getInt() == magic && header.getInt() == version && header.getLong() == fingerprint;
+    }
+
+    /**
+     * Write the cache to the given file.
+     */
+    void write(Path file, Utils.DataWriter contents) throws IOException {
+        Utils.writeAtomically(file, out -> {
+            out.writeInt(magic);
+            out.writeInt(version);
+            contents.write(out);
+        });
+    }
+
+    /**
+     * Write the cache of the inputs with the given fingerprint to the given file.
+     */
+    void write(Path file, long fingerprint, Utils.DataWriter contents) throws IOException {
+        write(file, out -> {
+            out.writeLong(fingerprint);
+            contents.write(out);
+        });
+    }
+
+    /**
+     * Write the cache to the given file, reporting a failure rather than throwing, as the cache is only built again.
+     */
+    void save(Path file, Utils.DataWriter contents) {
+        try {
+            write(file, contents);
+        } catch (IOException e) {
+            System.err.println("Failed to write " + description + " " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Write the cache of the inputs with the given fingerprint to the given file, reporting a failure rather than throwing.
+     */
+    void save(Path file, long fingerprint, Utils.DataWriter contents) {
+        save(file, out -> {
+            out.writeLong(fingerprint);
+            contents.write(out);
+        });
+    }
+
+    @FunctionalInterface
+    interface DataReader<T> {
+        @Nullable
+        T read(DataInputStream in) throws IOException;
+    }
+}
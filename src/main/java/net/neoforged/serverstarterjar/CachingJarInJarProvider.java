@@ -0,0 +1,305 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A file system provider which opens the jars nested in other jars (i.e. the jar-in-jar dependencies of mods) from copies
+ * extracted to an on-disk store, rather than from the outer jar.
+ * <p>
+ * When asked to open a jar that is an entry of a zip file system, the zip file system provider inflates the whole jar
+ * in memory, on every launch. This provider is installed before it: it extracts the jar once to the store, and lets the
+ * zip file system provider open the extracted jar instead, whose entries are then read from disk (and the page cache)
+ * as they are needed. The extracted jars are keyed on the outer jar, its size and modification time, and the path and
+ * CRC of the entry, so a jar is extracted again whenever the outer jar changes.
+ * <p>
+ * The copies left behind by outer jars which changed or were removed are {@linkplain #evictUnused evicted} when the server
+ * stops: any copy that was not opened for {@value #MAX_UNUSED_DAYS} days is deleted. As in the {@link ArtifactCache}, the
+ * time a copy was last opened is tracked by a {@code .used} marker file, since the modification time of the copy is that
+ * of the entry it was extracted from.
+ * <p>
+ * Only nested jars are opened by this provider, any other file system is left to the next provider.
+ */
+final class CachingJarInJarProvider extends FileSystemProvider {
+    static final int MAX_UNUSED_DAYS = 30;
+
+    private static final String USED_SUFFIX = ".used";
+
+    private final Path store;
+    private final FileSystemProvider zipProvider;
+
+    CachingJarInJarProvider(Path store, FileSystemProvider zipProvider) {
+        this.store = store.toAbsolutePath();
+        this.zipProvider = zipProvider;
+    }
+
+    /**
+     * {@return the provider of zip file systems among the given providers, if any}
+     */
+    @Nullable
+    static FileSystemProvider zipProvider(Iterable<FileSystemProvider> providers) {
+        for (FileSystemProvider provider : providers) {
+            if ("jar".equalsIgnoreCase(provider.getScheme())) return provider;
+        }
+        return null;
+    }
+
+    @Override
+    public String getScheme() {
+        return "serverstarter-jij";
+    }
+
+    @Override
+    public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+        final var outer = outerJar(path);
+        // Nested jars which are created or written to are left to the zip file system provider
+        if (outer == null || env.containsKey("create")) {
+            throw new UnsupportedOperationException();
+        }
+        return zipProvider.newFileSystem(extract(path, outer), env);
+    }
+
+    /**
+     * {@return the jar on the default file system the given jar is nested in, or {@code null} if it isn't a nested jar}
+     */
+    @Nullable
+    private Path outerJar(Path path) {
+        if (path.getFileSystem().provider() != zipProvider || path.getFileName() == null) return null;
+        var name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (!name.endsWith(".jar") && !name.endsWith(".zip")) return null;
+
+        // jar:file:///outer.jar!/nested.jar
+        var spec = path.toUri().getRawSchemeSpecificPart();
+        final int separator = spec.indexOf("!/");
+        if (separator < 0) return null;
+        try {
+            var outer = URI.create(spec.substring(0, separator));
+            return "file".equalsIgnoreCase(outer.getScheme()) ? Path.of(outer) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Path extract(Path nested, Path outer) throws IOException {
+        final var stamp = FileStamp.of(outer, false);
+        final var attributes = Files.readAttributes(nested, BasicFileAttributes.class);
+        final var crc = Files.getAttribute(nested, "zip:crc");
+
+        final var target = store.resolve(key(stamp.path() + "\0" + stamp.size() + "\0" + stamp.modified() + "\0" + nested + "\0" + crc) + ".jar");
+        if (isExtracted(target, attributes)) {
+            markUsed(target);
+            return target;
+        }
+
+        Files.createDirectories(store);
+        final var temp = Files.createTempFile(store, "extract", ".tmp");
+        try {
+            Files.copy(nested, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(temp, attributes.lastModifiedTime());
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Another server may have extracted it concurrently, and it may be open already
+            if (!isExtracted(target, attributes)) throw e;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        markUsed(target);
+        return target;
+    }
+
+    /**
+     * Delete the copies which were not opened for {@value #MAX_UNUSED_DAYS} days.
+     */
+    void evictUnused() {
+        evictUnused(Instant.now().minus(MAX_UNUSED_DAYS, ChronoUnit.DAYS));
+    }
+
+    /**
+     * Delete the copies which were last opened before the given time.
+     */
+    @VisibleForTesting
+    void evictUnused(Instant usedBefore) {
+        if (Files.notExists(store)) return;
+        int evicted = 0;
+        try (var stream = Files.newDirectoryStream(store, "*.jar")) {
+            for (Path copy : stream) {
+                try {
+                    var marker = usedMarker(copy);
+                    var used = Files.exists(marker) ? Files.getLastModifiedTime(marker) : Files.getLastModifiedTime(copy);
+                    if (!used.toInstant().isBefore(usedBefore)) continue;
+
+                    Files.deleteIfExists(copy);
+                    Files.deleteIfExists(marker);
+                    evicted++;
+                } catch (IOException e) {
+                    // Another server sharing the store may have it open
+                    System.err.println("Failed to evict " + copy + " from the nested jar cache: " + e);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to evict unused jars from the nested jar cache " + store + ": " + e);
+        }
+        if (evicted > 0) {
+            System.err.println("Evicted " + evicted + " unused jars from the nested jar cache " + store);
+        }
+    }
+
+    private static Path usedMarker(Path copy) {
+        return copy.resolveSibling(copy.getFileName() + USED_SUFFIX);
+    }
+
+    private static void markUsed(Path copy) {
+        var marker = usedMarker(copy);
+        try {
+            try {
+                Files.createFile(marker);
+            } catch (FileAlreadyExistsException ignored) {
+                Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to mark " + copy + " as used: " + e);
+        }
+    }
+
+    /**
+     * The copy is stamped with the time of the entry, so that a copy which was written to is extracted again.
+     */
+    private static boolean isExtracted(Path target, BasicFileAttributes entry) throws IOException {
+        return Files.isRegularFile(target) && Files.size(target) == entry.size()
+                && Files.getLastModifiedTime(target).equals(entry.lastModifiedTime());
+    }
+
+    private static String key(String identity) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        var key = new StringBuilder();
+        for (byte b : digest.digest(identity.getBytes(StandardCharsets.UTF_8))) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    // This provider never creates file systems, nor paths, of its own
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,94 @@
+package net.neoforged.serverstarterjar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Launches the server in a child JVM using a dynamic Class Data Sharing archive of the classes it loads.
+ * <p>
+ * The classes loaded from the module path once the starter installed it as the boot layer cannot be archived, as CDS only
+ * archives classes from the class and module paths the JVM was started with. The server is therefore started in a child JVM
+ * with the command line of the run script. The first launch is a training run which dumps the archive when the server stops
+ * ({@code -XX:ArchiveClassesAtExit}), and the following launches map it ({@code -XX:SharedArchiveFile}).
+ * On Java 19 and above, {@code -XX:+AutoCreateSharedArchive} lets the JVM do both on its own.
+ * <p>
+ * The archive is discarded whenever the fingerprint of the launch, which covers the JVM, the options the starter was started
+ * with, the arguments of the run script and every entry of the module and class paths, changes.
+ */
+final class CdsArchive {
+    private static final Set<String> PATH_OPTIONS = Set.of("-p", "--module-path", "-cp", "--class-path", "-classpath", "-jar");
+
+    private CdsArchive() {}
+
+    static int launch(Main.RunScript script, List<String> programArgs) throws IOException, InterruptedException {
+        return ChildJvm.run(ChildJvm.command(script, options(script), programArgs));
+    }
+
+    /**
+     * {@return the JVM options which make the child JVM record or use the archive}
+     */
+    static List<String> options(Main.RunScript script) throws IOException {
+        final var archive = Main.CACHE_DIR.resolve("classes.jsa").toAbsolutePath();
+        final var fingerprintFile = Main.CACHE_DIR.resolve("classes.jsa.fingerprint");
+        final var fingerprint = Long.toHexString(fingerprint(script));
+
+        final boolean upToDate = Files.exists(archive) && Files.exists(fingerprintFile)
+                && Files.readString(fingerprintFile).equals(fingerprint);
+        if (!upToDate) {
+            Files.deleteIfExists(archive);
+            Files.createDirectories(fingerprintFile.toAbsolutePath().getParent());
+            Files.writeString(fingerprintFile, fingerprint);
+        }
+
+        var options = new ArrayList<String>();
+        if (Runtime.version().feature() >= 19) {
+            options.add("-XX:+AutoCreateSharedArchive");
+            options.add("-XX:SharedArchiveFile=" + archive);
+        } else if (upToDate) {
+            options.add("-XX:SharedArchiveFile=" + archive);
+        } else {
+            options.add("-XX:ArchiveClassesAtExit=" + archive);
+        }
+
+        if (upToDate) {
+            System.out.println("Launching with class data sharing archive " + archive);
+        } else {
+            System.out.println("Recording class data sharing archive " + archive + ", it will be written when the server stops and used from the next launch");
+        }
+
+        return options;
+    }
+
+    /**
+     * Compute the fingerprint of the launch: the JVM, the options of the starter, the arguments and the size and modification time of every module and class path entry.
+     */
+    static long fingerprint(Main.RunScript script) throws IOException {
+        var fingerprint = Fingerprint.ofRuntime();
+        for (String option : ChildJvm.inheritedOptions()) {
+            fingerprint.add(option);
+        }
+
+        var arguments = script.arguments();
+        for (int i = 0; i < arguments.size(); i++) {
+            var argument = arguments.get(i);
+            fingerprint.add(argument);
+            if (PATH_OPTIONS.contains(argument) && i + 1 < arguments.size()) {
+                for (String entry : arguments.get(i + 1).split(File.pathSeparator)) {
+                    var path = Path.of(entry);
+                    if (Files.exists(path)) {
+                        fingerprint.addFile(path);
+                    }
+                }
+            }
+        }
+        for (String option : script.jvmOptions()) {
+            fingerprint.add(option);
+        }
+        return fingerprint.value();
+    }
+}
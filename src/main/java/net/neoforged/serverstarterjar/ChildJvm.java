@@ -0,0 +1,125 @@
+package net.neoforged.serverstarterjar;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launches the server in a child JVM, using the command line resolved from the run script.
+ * <p>
+ * This is used by the modes that need control over the JVM itself, which the same-process launch cannot provide.
+ * The child inherits the standard streams of the starter, its exit code is returned to the caller, and it is asked to
+ * stop when the starter is. The child is started with the JVM options of the starter too (such as the {@code -Xmx} a panel
+ * passes on the command line), followed by the options of the script, which take precedence.
+ */
+final class ChildJvm {
+    /**
+     * How long a child is given to shut down gracefully when the starter is stopped before it is killed.
+     */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private ChildJvm() {}
+
+    /**
+     * Create the process builder for a child JVM running the given script.
+     * <p>
+     * The arguments are passed through an argument file as the expanded module and class paths can easily go beyond
+     * the command line length limit of Windows.
+     *
+     * @param extraJvmOptions additional options for the JVM, placed after the options of the starter and before the options of the script
+     * @param programArgs     additional arguments passed to the main class
+     */
+    static ProcessBuilder command(Main.RunScript script, List<String> extraJvmOptions, List<String> programArgs) throws IOException {
+        var argsFile = Main.CACHE_DIR.resolve("child_jvm_args.txt").toAbsolutePath();
+        var lines = new ArrayList<String>(script.arguments().size());
+        for (String argument : script.arguments()) {
+            lines.add(quote(argument));
+        }
+        Files.createDirectories(argsFile.getParent());
+        Files.write(argsFile, lines);
+
+        var command = new ArrayList<String>();
+        command.add(javaExecutable());
+        command.addAll(inheritedOptions());
+        command.addAll(extraJvmOptions);
+        command.addAll(script.jvmOptions());
+        command.add("@" + argsFile);
+        command.addAll(programArgs);
+        return new ProcessBuilder(command).inheritIO();
+    }
+
+    /**
+     * Start the process and wait for it to exit, stopping it if the starter is stopped first.
+     *
+     * @return the exit code of the process
+     */
+    static int run(ProcessBuilder builder) throws IOException, InterruptedException {
+        final var process = builder.start();
+        final var stopChild = new Thread(() -> stop(process), "serverstarter-child-shutdown");
+        Runtime.getRuntime().addShutdownHook(stopChild);
+        try {
+            return process.waitFor();
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(stopChild);
+            } catch (IllegalStateException ignored) {
+                // We are already shutting down, and the hook takes care of the child
+            }
+        }
+    }
+
+    /**
+     * Ask the process to stop (SIGTERM on *nix, which lets the server save the worlds), and kill it if it doesn't in time.
+     */
+    static void stop(Process process) {
+        if (!process.isAlive()) return;
+        process.destroy();
+        try {
+            if (!process.waitFor(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Server process did not stop in " + SHUTDOWN_TIMEOUT_SECONDS + " seconds, killing it");
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@return the given JVM options that the current JVM was not started with}
+     */
+    static List<String> missingOptions(List<String> jvmOptions) {
+        if (jvmOptions.isEmpty()) return jvmOptions;
+        var current = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        return jvmOptions.stream().filter(option -> !current.contains(option)).toList();
+    }
+
+    /**
+     * {@return the options the starter JVM was started with, which the child JVM is started with too}
+     * The options of a debugger agent are left out, as the child cannot listen on the same port as the starter.
+     */
+    static List<String> inheritedOptions() {
+        return ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+                .filter(option -> !option.startsWith("-agentlib:jdwp") && !option.startsWith("-Xrunjdwp"))
+                .toList();
+    }
+
+    static String javaExecutable() {
+        return ProcessHandle.current().info().command()
+                .orElseGet(() -> Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    }
+
+    /**
+     * Quote an argument so that the java launcher reads it back unchanged from an argument file.
+     */
+    static String quote(String argument) {
+        if (!argument.isEmpty() && argument.chars().noneMatch(c -> Character.isWhitespace(c) || c == '"' || c == '\'' || c == '\\' || c == '#')) {
+            return argument;
+        }
+        return '"' + argument.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
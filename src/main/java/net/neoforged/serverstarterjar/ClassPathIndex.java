@@ -0,0 +1,108 @@
+package net.neoforged.serverstarterjar;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * An on-disk index of the directories of the jars on the class path, which is what the JDK's {@code INDEX.LIST}
+ * records, generated by the starter for every jar rather than shipped by the jars themselves.
+ * <p>
+ * Entries are keyed on the path, size and modification time of each jar, so that only the jars that changed since the
+ * last launch are scanned again.
+ */
+final class ClassPathIndex {
+    private static final CacheFile FORMAT = new CacheFile(0x53534349 /* SSCI */, 1, "class path index");
+
+    private final Path file;
+    private final Map<Path, Entry> entries;
+    private final Map<Path, Entry> used = new LinkedHashMap<>();
+    private boolean dirty;
+
+    private ClassPathIndex(Path file, Map<Path, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    static ClassPathIndex load(Path file) {
+        var entries = FORMAT.read(file, in -> {
+            final int count = in.readInt();
+            var read = new LinkedHashMap<Path, Entry>(count);
+            for (int i = 0; i < count; i++) {
+                var entry = Entry.read(in);
+                read.put(entry.stamp().path(), entry);
+            }
+            return read;
+        });
+        return new ClassPathIndex(file, entries == null ? new LinkedHashMap<>() : entries);
+    }
+
+    /**
+     * {@return the directories containing the entries of the jar, {@code ""} being the root of the jar}
+     * The jar is scanned again if it isn't indexed or changed since.
+     */
+    List<String> directories(Path jar) throws IOException {
+        var absolute = jar.toAbsolutePath();
+        var entry = entries.get(absolute);
+        if (entry == null || !entry.stamp().isValid()) {
+            entry = new Entry(FileStamp.of(absolute, false), scan(absolute));
+            dirty = true;
+        }
+        used.put(absolute, entry);
+        return entry.directories();
+    }
+
+    /**
+     * Write the index back to disk if any jar had to be scanned again. Only the jars used by this launch are kept.
+     */
+    void save() {
+        if (!dirty && used.size() == entries.size()) return;
+
+        FORMAT.save(file, out -> {
+            out.writeInt(used.size());
+            for (Entry entry : used.values()) {
+                entry.write(out);
+            }
+        });
+    }
+
+    /**
+     * {@return the directory the entry with the given name is in}
+     * Directory entries are considered to be in their parent directory.
+     */
+    static String directoryOf(String name) {
+        final int end = name.endsWith("/") ? name.length() - 1 : name.length();
+        final int slash = name.lastIndexOf('/', end - 1);
+        return slash < 0 ? "" : name.substring(0, slash);
+    }
+
+    private static List<String> scan(Path jar) throws IOException {
+        var directories = new LinkedHashSet<String>();
+        try (var file = new JarFile(jar.toFile(), false, ZipFile.OPEN_READ, JarFile.runtimeVersion())) {
+            // Multi-release jars are indexed under the names their versioned entries are looked up with
+            final Stream<JarEntry> stream = file.isMultiRelease() ? file.versionedStream() : file.stream();
+            stream.forEach(entry -> directories.add(directoryOf(entry.getName())));
+        }
+        return List.copyOf(directories);
+    }
+
+    private record Entry(FileStamp stamp, List<String> directories) {
+        void write(DataOutput out) throws IOException {
+            stamp.write(out);
+            Utils.writeStrings(out, directories);
+        }
+
+        static Entry read(DataInput in) throws IOException {
+            return new Entry(FileStamp.read(in), Utils.readStrings(in));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Path;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the classes the server is going to need on background threads while it boots, so that reading, parsing and
+ * defining them overlaps with the bootstrap on the main thread.
+ * <p>
+ * The classes to load are taken from a profile of a previous launch: recording a profile registers a
+ * {@link ClassFileTransformer} which notes, in order, every class defined by the loader of the server during the first
+ * minute of the launch (or until the server stops, if sooner). Replaying it loads those classes without initializing them,
+ * from a pool of threads which take the classes in the order they were recorded.
+ * <p>
+ * Like the class data sharing archive, the profile is discarded whenever the {@linkplain CdsArchive#fingerprint fingerprint}
+ * of the launch changes.
+ */
+final class ClassPreload {
+    private static final CacheFile FORMAT = new CacheFile(0x53534350 /* SSCP */, 1, "class preload profile");
+    private static final long RECORD_DURATION = 60_000;
+
+    private static final ThreadLocal<Boolean> PRELOADING = ThreadLocal.withInitial(() -> false);
+
+    private ClassPreload() {}
+
+    enum Mode {
+        /**
+         * Replay the profile if there is an up-to-date one, otherwise record one.
+         */
+        AUTO,
+        RECORD,
+        REPLAY;
+
+        static Mode parse(String mode) {
+            try {
+                return valueOf(mode.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown class preload mode " + mode + ", expected one of auto, record or replay");
+                System.exit(1);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Start recording or replaying the profile of the classes defined by the given loader.
+     */
+    static void start(Mode mode, Path file, Main.RunScript script, ClassLoader loader) throws IOException {
+        final long fingerprint = CdsArchive.fingerprint(script);
+        var profile = mode == Mode.RECORD ? null : load(file, fingerprint);
+        if (profile != null) {
+            replay(profile, loader, Agent.instrumentation);
+        } else if (mode == Mode.REPLAY) {
+            System.err.println("No up-to-date class preload profile at " + file + ", use --class-preload record to record one");
+        } else {
+            System.out.println("Recording the classes loaded by the server to " + file + ", they will be preloaded from the next launch");
+            record(file, fingerprint, loader, Agent.instrumentation);
+        }
+    }
+
+    private static void record(Path file, long fingerprint, ClassLoader loader, Instrumentation instrumentation) {
+        final var classes = new ArrayList<String>();
+        final var transformer = new ClassFileTransformer() {
+            @Override
+            public byte @Nullable [] transform(ClassLoader classLoader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+                // Only classes read from the jars can be loaded again, unlike generated ones such as proxies
+                if (classLoader == loader && classBeingRedefined == null && className != null
+                        && protectionDomain != null && protectionDomain.getCodeSource() != null) {
+                    synchronized (classes) {
+                        classes.add(className.replace('/', '.'));
+                    }
+                }
+                return null;
+            }
+        };
+        instrumentation.addTransformer(transformer);
+
+        final var saved = new AtomicBoolean();
+        final Runnable stop = () -> {
+            if (!saved.compareAndSet(false, true)) return;
+            instrumentation.removeTransformer(transformer);
+            final List<String> recorded;
+            synchronized (classes) {
+                recorded = List.copyOf(classes);
+            }
+            save(file, fingerprint, recorded);
+        };
+        Runtime.getRuntime().addShutdownHook(new Thread(stop, "serverstarter-class-preload-save"));
+        Utils.daemonThreads("serverstarter-class-preload-record-").newThread(() -> {
+            try {
+                Thread.sleep(RECORD_DURATION);
+                stop.run();
+            } catch (InterruptedException ignored) {
+                // The shutdown hook saves the profile
+            }
+        }).start();
+    }
+
+    private static void replay(List<String> classes, ClassLoader loader, Instrumentation instrumentation) {
+        final Set<String> profiled = new HashSet<>(classes);
+        final Set<String> preloaded = ConcurrentHashMap.newKeySet();
+        final Set<String> late = ConcurrentHashMap.newKeySet();
+        final var missing = new AtomicInteger();
+
+        // Tell the classes the pool defined apart from the ones the server asked for before the pool got to them
+        final var transformer = new ClassFileTransformer() {
+            @Override
+            public byte @Nullable [] transform(ClassLoader classLoader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+                if (classLoader == loader && classBeingRedefined == null && className != null) {
+                    var name = className.replace('/', '.');
+                    if (profiled.contains(name)) {
+                        (PRELOADING.get() ? preloaded : late).add(name);
+                    }
+                }
+                return null;
+            }
+        };
+        instrumentation.addTransformer(transformer);
+
+        final long start = System.nanoTime();
+        final var next = new AtomicInteger();
+        // Leave a processor to the main thread
+        final int parallelism = Utils.parallelism(Runtime.getRuntime().availableProcessors() - 1, true);
+        final var remaining = new AtomicInteger(parallelism);
+        final var executor = Utils.daemonPool("serverstarter-class-preload-", parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            executor.execute(() -> {
+                PRELOADING.set(true);
+                int index;
+                while ((index = next.getAndIncrement()) < classes.size()) {
+                    try {
+                        Class.forName(classes.get(index), false, loader);
+                    } catch (ClassNotFoundException | LinkageError e) {
+                        missing.incrementAndGet();
+                    }
+                }
+
+                if (remaining.decrementAndGet() == 0) {
+                    instrumentation.removeTransformer(transformer);
+                    System.err.printf("Preloaded %d of %d classes in %.3f ms (%d loaded by the server first, %d missing)%n",
+                            preloaded.size(), classes.size(), (System.nanoTime() - start) / 1_000_000.0, late.size(), missing.get());
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    @Nullable
+    private static List<String> load(Path file, long fingerprint) {
+        return FORMAT.read(file, fingerprint, Utils::readStrings);
+    }
+
+    private static void save(Path file, long fingerprint, List<String> classes) {
+        FORMAT.save(file, fingerprint, out -> Utils.writeStrings(out, classes));
+    }
+}
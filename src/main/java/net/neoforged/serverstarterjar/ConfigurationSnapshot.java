@@ -0,0 +1,213 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.lang.module.ResolvedModule;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A snapshot of the {@link Configuration} resolved from the module path, used to define the module layer of the server
+ * without resolving the module path again.
+ * <p>
+ * Resolving the module path checks every module against every other module it reads, which adds up quickly as automatic
+ * modules read every other module. The snapshot records the readability graph that came out of a successful resolution,
+ * and is only used as long as the descriptors of the modules it was resolved from, and the JDK, are unchanged. The
+ * configuration is then rebuilt directly from the graph, much like the JDK rebuilds the configuration of the boot layer
+ * from its archived module graph.
+ * <p>
+ * Rebuilding the configuration sets the private final fields of {@link Configuration}. On a JDK where they don't exist,
+ * or cannot be accessed, snapshots are neither read nor written, and the module path is resolved on every launch.
+ */
+final class ConfigurationSnapshot {
+    private static final CacheFile FORMAT = new CacheFile(0x53534346 /* SSCF */, 1, "module configuration snapshot");
+
+    /**
+     * The handles to the internals of {@link Configuration}, or {@code null} if they cannot be found on this JDK.
+     */
+    @Nullable
+    private static final Handles HANDLES = Handles.find();
+
+    private ConfigurationSnapshot() {}
+
+    /**
+     * {@return the configuration recorded in the given snapshot, or {@code null} if there is no snapshot of these modules}
+     *
+     * @param parent the configuration the snapshot was resolved against
+     */
+    @Nullable
+    static Configuration load(Path file, long fingerprint, ModuleFinder finder, Configuration parent) {
+        final var handles = HANDLES;
+        if (handles == null) return null;
+        final var snapshot = FORMAT.read(file, fingerprint, Snapshot::read);
+        if (snapshot == null) return null;
+
+        final var names = snapshot.names();
+        final var parentNames = snapshot.parentNames();
+        try {
+            final var configuration = (Configuration) handles.newConfiguration().invoke();
+            final var modules = new ResolvedModule[names.size() + parentNames.size()];
+            final var nameToModule = new HashMap<String, ResolvedModule>(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                var reference = finder.find(names.get(i)).orElse(null);
+                if (reference == null) return null;
+                modules[i] = (ResolvedModule) handles.newResolvedModule().invoke(configuration, reference);
+                nameToModule.put(names.get(i), modules[i]);
+            }
+            for (int i = 0; i < parentNames.size(); i++) {
+                var module = parent.findModule(parentNames.get(i)).orElse(null);
+                if (module == null) return null;
+                modules[names.size() + i] = module;
+            }
+
+            final var graph = new HashMap<ResolvedModule, Set<ResolvedModule>>(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                final var indices = snapshot.reads()[i];
+                final var reads = new ResolvedModule[indices.length];
+                for (int j = 0; j < reads.length; j++) {
+                    reads[j] = modules[indices[j]];
+                }
+                graph.put(modules[i], Set.of(reads));
+            }
+
+            handles.setParents().invoke(configuration, List.of(parent));
+            handles.setGraph().invoke(configuration, graph);
+            handles.setModules().invoke(configuration, Set.copyOf(nameToModule.values()));
+            handles.setNameToModule().invoke(configuration, nameToModule);
+            return configuration;
+        } catch (Throwable e) {
+            System.err.println("Discarding invalid module configuration snapshot " + file + ": " + e);
+            return null;
+        }
+    }
+
+    static void save(Path file, long fingerprint, Configuration configuration) {
+        // The snapshot could not be read back
+        if (HANDLES == null) return;
+
+        final var names = new ArrayList<String>();
+        final var indices = new LinkedHashMap<ResolvedModule, Integer>();
+        for (ResolvedModule module : configuration.modules()) {
+            indices.put(module, names.size());
+            names.add(module.name());
+        }
+        final var parentNames = new ArrayList<String>();
+        for (ResolvedModule module : configuration.modules()) {
+            for (ResolvedModule read : module.reads()) {
+                if (!indices.containsKey(read)) {
+                    indices.put(read, names.size() + parentNames.size());
+                    parentNames.add(read.name());
+                }
+            }
+        }
+
+        FORMAT.save(file, fingerprint, out -> {
+            Utils.writeStrings(out, names);
+            Utils.writeStrings(out, parentNames);
+            for (ResolvedModule module : configuration.modules()) {
+                final var reads = module.reads();
+                out.writeInt(reads.size());
+                for (ResolvedModule read : reads) {
+                    out.writeInt(indices.get(read));
+                }
+            }
+        });
+    }
+
+    /**
+     * {@return a fingerprint of everything the resolution of the given modules depends on}
+     *
+     * @param roots  the modules the configuration is resolved from, or {@code null} if resolved from all the modules
+     * @param parent the configuration the modules are resolved against
+     */
+    static long fingerprint(Set<ModuleReference> modules, @Nullable Set<String> roots, Configuration parent) {
+        var fingerprint = Fingerprint.ofRuntime();
+        // The modules of the parent depend on the options the JVM was started with, such as --add-modules or --limit-modules,
+        // and automatic modules read all of them
+        var parentNames = new TreeSet<String>();
+        for (ResolvedModule module : parent.modules()) {
+            parentNames.add(module.name());
+        }
+        fingerprint.add(parentNames.size());
+        for (String name : parentNames) {
+            fingerprint.add(name);
+        }
+        fingerprint.add(roots == null ? -1 : roots.size());
+        if (roots != null) {
+            for (String root : new TreeSet<>(roots)) {
+                fingerprint.add(root);
+            }
+        }
+
+        var sorted = new ArrayList<>(modules);
+        sorted.sort(Comparator.comparing(reference -> reference.descriptor().name()));
+        for (ModuleReference reference : sorted) {
+            var descriptor = reference.descriptor();
+            // The hash code of descriptors only depends on their contents, as it hashes their modifiers by name
+            fingerprint.add(descriptor.name()).add(descriptor.hashCode());
+        }
+        return fingerprint.value();
+    }
+
+    /**
+     * The contents of a snapshot file.
+     *
+     * @param names       the names of the modules of the configuration
+     * @param parentNames the names of the modules of the parent configuration they read
+     * @param reads       the indices in the names, followed by the parent names, of the modules each module reads
+     */
+    private record Snapshot(List<String> names, List<String> parentNames, int[][] reads) {
+        static Snapshot read(DataInputStream in) throws IOException {
+            final var names = Utils.readStrings(in);
+            final var parentNames = Utils.readStrings(in);
+            final var reads = new int[names.size()][];
+            for (int i = 0; i < reads.length; i++) {
+                reads[i] = new int[in.readInt()];
+                for (int j = 0; j < reads[i].length; j++) {
+                    reads[i][j] = in.readInt();
+                }
+            }
+            return new Snapshot(names, parentNames, reads);
+        }
+    }
+
+    private record Handles(MethodHandle newConfiguration, MethodHandle newResolvedModule, MethodHandle setParents,
+                           MethodHandle setGraph, MethodHandle setModules, MethodHandle setNameToModule) {
+        @Nullable
+        static Handles find() {
+            try {
+                var lookup = MethodHandles.privateLookupIn(Configuration.class, MethodHandles.lookup());
+                return new Handles(
+                        lookup.findConstructor(Configuration.class, MethodType.methodType(void.class)),
+                        lookup.findConstructor(ResolvedModule.class, MethodType.methodType(void.class, Configuration.class, ModuleReference.class)),
+                        finalSetter(lookup, "parents"),
+                        finalSetter(lookup, "graph"),
+                        finalSetter(lookup, "modules"),
+                        finalSetter(lookup, "nameToModule"));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                System.err.println("Module configuration snapshots are not supported by this JDK, the module path will be resolved on every launch: " + e);
+                return null;
+            }
+        }
+
+        private static MethodHandle finalSetter(MethodHandles.Lookup lookup, String name) throws ReflectiveOperationException {
+            var field = Configuration.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return lookup.unreflectSetter(field);
+        }
+    }
+}
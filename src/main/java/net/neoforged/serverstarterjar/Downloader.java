@@ -0,0 +1,409 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Downloads files over HTTP, splitting them in segments fetched in parallel with range requests when the server supports them.
+ * <p>
+ * Downloads are written to a {@code .part} file next to the target, and only moved in place once complete and verified
+ * against the checksum published next to the file (the {@code .sha256} or {@code .sha1} files of a maven repository).
+ * The progress of each segment is saved to a {@code .part.state} file, so that an interrupted download is resumed
+ * instead of started over. Once verified, the file is stamped in a {@code .verified} file, so that it is not verified
+ * again, over the network, until it changes.
+ */
+final class Downloader {
+    static final int DEFAULT_CONNECTIONS = 4;
+    static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final int STATE_MAGIC = 0x53534450; // SSDP
+    private static final int VERIFIED_MAGIC = 0x53534456; // SSDV
+    private static final int ATTEMPTS = 3;
+    private static final int TIMEOUT_MILLIS = 30_000;
+    /**
+     * How many bytes a segment downloads between saves of its progress.
+     */
+    private static final long STATE_SAVE_INTERVAL = 1024 * 1024;
+
+    private Downloader() {}
+
+    /**
+     * Download the file at the given URL to the target, verifying it against its published checksum.
+     *
+     * @return the checksum the file was verified against, or {@code null} if none is published
+     */
+    @Nullable
+    static Checksum download(URL url, Path target) throws IOException {
+        return download(url, target, DEFAULT_CONNECTIONS, DEFAULT_MIN_SEGMENT_SIZE);
+    }
+
+    @Nullable
+    @VisibleForTesting
+    static Checksum download(URL url, Path target, int connections, long minSegmentSize) throws IOException {
+        final var checksum = fetchChecksum(url);
+        if (checksum == null) {
+            System.err.println("No checksum is published for " + url + ", the download will not be verified");
+        }
+
+        final var part = target.resolveSibling(target.getFileName() + ".part");
+        final var stateFile = target.resolveSibling(target.getFileName() + ".part.state");
+
+        var remote = probe(url);
+        if (remote.acceptsRanges() && remote.length() >= 2 * minSegmentSize && connections > 1) {
+            downloadSegmented(url, remote, part, stateFile, (int) Math.min(connections, remote.length() / minSegmentSize));
+        } else {
+            downloadSingle(url, remote, part, stateFile);
+        }
+
+        if (checksum != null && !checksum.matches(part)) {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(stateFile);
+            throw new IOException("Checksum mismatch for " + url + ": expected " + checksum.algorithm() + " " + checksum.hash());
+        }
+
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(stateFile);
+        markVerified(url, target);
+        return checksum;
+    }
+
+    /**
+     * {@return whether the file was verified against the checksum published for the given URL, and is unchanged since}
+     */
+    static boolean isVerified(URL url, Path file) {
+        final var verifiedFile = file.resolveSibling(file.getFileName() + ".verified");
+        if (Files.notExists(verifiedFile)) return false;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(verifiedFile)))) {
+            return in.readInt() == VERIFIED_MAGIC && Utils.readString(in).equals(url.toString()) && FileStamp.read(in).isValid();
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Record that the file was verified against the checksum published for the given URL.
+     */
+    static void markVerified(URL url, Path file) {
+        final var verifiedFile = file.resolveSibling(file.getFileName() + ".verified");
+        try {
+            final var stamp = FileStamp.of(file, false);
+            Utils.writeAtomically(verifiedFile, out -> {
+                out.writeInt(VERIFIED_MAGIC);
+                Utils.writeString(out, url.toString());
+                stamp.write(out);
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to record the verification of " + file + ": " + e);
+        }
+    }
+
+    /**
+     * {@return the checksum published next to the file at the given URL, or {@code null} if there is none}
+     */
+    @Nullable
+    static Checksum fetchChecksum(URL url) throws IOException {
+        for (String algorithm : new String[] { "SHA-256", "SHA-1" }) {
+            var checksumUrl = URI.create(url.toString() + "." + algorithm.replace("-", "").toLowerCase(Locale.ROOT)).toURL();
+            try {
+                var connection = open(checksumUrl, null);
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    connection.disconnect();
+                    continue;
+                }
+                try (var in = connection.getInputStream()) {
+                    // The file may also contain the name of the file after the hash
+                    var contents = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim().split("\\s+")[0];
+                    // Anything that does not look like a hash, such as an error page, is ignored
+                    if (contents.length() == expectedLength(algorithm) && contents.chars().allMatch(c -> Character.digit(c, 16) != -1)) {
+                        return new Checksum(algorithm, contents.toLowerCase(Locale.ROOT));
+                    }
+                }
+            } catch (FileNotFoundException ignored) {
+                // This checksum isn't published, try the next one
+            }
+        }
+        return null;
+    }
+
+    private static int expectedLength(String algorithm) {
+        return algorithm.equals("SHA-256") ? 64 : 40;
+    }
+
+    private static void downloadSingle(URL url, Remote remote, Path part, Path stateFile) throws IOException {
+        // We can only resume if the server accepts ranges and the file didn't change
+        long offset = 0;
+        var state = readState(stateFile, remote);
+        if (remote.acceptsRanges() && state != null && state.segments() == 1 && Files.exists(part)) {
+            offset = Math.min(Files.size(part), state.done().get(0));
+        }
+
+        var done = new AtomicLongArray(new long[] { offset });
+        var segmentState = new State(remote.length(), remote.validator(), 1, new long[] { 0 }, new long[] { remote.length() - 1 }, done);
+        try (var channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(offset);
+            IOException failure = null;
+            for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+                try {
+                    fetchSegment(url, channel, segmentState, 0, stateFile);
+                    return;
+                } catch (IOException e) {
+                    failure = e;
+                    // Without range support we can't continue where we left off
+                    if (!remote.acceptsRanges()) {
+                        done.set(0, 0);
+                        channel.truncate(0);
+                    }
+                }
+            }
+            throw failure;
+        } finally {
+            if (remote.acceptsRanges()) {
+                writeState(stateFile, segmentState);
+            }
+        }
+    }
+
+    private static void downloadSegmented(URL url, Remote remote, Path part, Path stateFile, int segments) throws IOException {
+        var state = readState(stateFile, remote);
+        if (state == null || !Files.exists(part)) {
+            // Split the file in equal segments, the last one taking the remainder
+            var starts = new long[segments];
+            var ends = new long[segments];
+            final long segmentSize = remote.length() / segments;
+            for (int i = 0; i < segments; i++) {
+                starts[i] = i * segmentSize;
+                ends[i] = i == segments - 1 ? remote.length() - 1 : (i + 1) * segmentSize - 1;
+            }
+            state = new State(remote.length(), remote.validator(), segments, starts, ends, new AtomicLongArray(segments));
+            Files.deleteIfExists(part);
+        } else {
+            System.err.println("Resuming download of " + url);
+        }
+
+        final var finalState = state;
+        final var executor = Utils.daemonPool("serverstarter-download-", state.segments());
+        try (var channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            var futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < state.segments(); i++) {
+                final int segment = i;
+                futures.add(executor.submit(() -> {
+                    IOException failure = null;
+                    for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+                        try {
+                            fetchSegment(url, channel, finalState, segment, stateFile);
+                            return null;
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    throw failure;
+                }));
+            }
+
+            IOException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading " + url, e);
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+            // Whatever happened, persist how far each segment got so that we can resume later
+            writeState(stateFile, state);
+        }
+    }
+
+    private static void fetchSegment(URL url, FileChannel channel, State state, int segment, Path stateFile) throws IOException {
+        final long start = state.starts()[segment];
+        final long end = state.ends()[segment];
+        long position = start + state.done().get(segment);
+        if (end >= 0 && position > end) return;
+
+        final var ranged = position > 0 || state.segments() > 1;
+        var connection = open(url, ranged ? "bytes=" + position + "-" + (end >= 0 ? end : "") : null);
+        if (ranged && connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+            throw new IOException("Server did not honour range request for " + url + ": HTTP " + connection.getResponseCode());
+        }
+
+        long sinceSave = 0;
+        try (InputStream in = connection.getInputStream()) {
+            var buffer = ByteBuffer.allocate(64 * 1024);
+            int read;
+            while ((read = in.read(buffer.array())) != -1) {
+                if (end >= 0) {
+                    read = (int) Math.min(read, end + 1 - position);
+                }
+                buffer.position(0).limit(read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                state.done().set(segment, position - start);
+                sinceSave += read;
+                if (sinceSave >= STATE_SAVE_INTERVAL) {
+                    sinceSave = 0;
+                    writeState(stateFile, state);
+                }
+                if (end >= 0 && position > end) break;
+            }
+        }
+
+        if (end >= 0 && position <= end) {
+            throw new IOException("Premature end of download of " + url + " at byte " + position);
+        }
+    }
+
+    private static Remote probe(URL url) throws IOException {
+        var connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        try {
+            connection.setRequestMethod("HEAD");
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                var validator = connection.getHeaderField("ETag");
+                if (validator == null) validator = connection.getHeaderField("Last-Modified");
+                return new Remote(connection.getContentLengthLong(),
+                        "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges")) && connection.getContentLengthLong() > 0,
+                        validator == null ? "" : validator);
+            }
+        } finally {
+            connection.disconnect();
+        }
+        // The server doesn't like HEAD requests, so fall back to a plain download
+        return new Remote(-1, false, "");
+    }
+
+    private static HttpURLConnection open(URL url, @Nullable String range) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection http)) {
+            throw new IOException("Unsupported download protocol: " + url);
+        }
+        http.setConnectTimeout(TIMEOUT_MILLIS);
+        http.setReadTimeout(TIMEOUT_MILLIS);
+        if (range != null) {
+            http.setRequestProperty("Range", range);
+        }
+        if (http.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+            throw new FileNotFoundException(url.toString());
+        }
+        return http;
+    }
+
+    @Nullable
+    private static State readState(Path stateFile, Remote remote) {
+        if (Files.notExists(stateFile)) return null;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+            if (in.readInt() != STATE_MAGIC) return null;
+            final long length = in.readLong();
+            final var validator = Utils.readString(in);
+            // The file changed on the server since, so the downloaded bytes are worthless
+            if (length != remote.length() || !validator.equals(remote.validator())) return null;
+
+            final int segments = in.readInt();
+            var starts = new long[segments];
+            var ends = new long[segments];
+            var done = new AtomicLongArray(segments);
+            for (int i = 0; i < segments; i++) {
+                starts[i] = in.readLong();
+                ends[i] = in.readLong();
+                done.set(i, in.readLong());
+            }
+            return new State(length, validator, segments, starts, ends, done);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static synchronized void writeState(Path stateFile, State state) {
+        try {
+            Utils.writeAtomically(stateFile, out -> {
+                out.writeInt(STATE_MAGIC);
+                out.writeLong(state.length());
+                Utils.writeString(out, state.validator());
+                out.writeInt(state.segments());
+                for (int i = 0; i < state.segments(); i++) {
+                    out.writeLong(state.starts()[i]);
+                    out.writeLong(state.ends()[i]);
+                    out.writeLong(state.done().get(i));
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to save download progress to " + stateFile + ": " + e);
+        }
+    }
+
+    /**
+     * @param length        the length of the remote file, or {@code -1} if unknown
+     * @param acceptsRanges whether the server accepts range requests for the file
+     * @param validator     the ETag or last modification date of the remote file, used to detect changes before resuming
+     */
+    private record Remote(long length, boolean acceptsRanges, String validator) {}
+
+    private record State(long length, String validator, int segments, long[] starts, long[] ends, AtomicLongArray done) {}
+
+    record Checksum(String algorithm, String hash) {
+        boolean matches(Path file) throws IOException {
+            return hash.equals(Downloader.hash(file, algorithm));
+        }
+    }
+
+    static String hash(Path file, String algorithm) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (var in = Files.newInputStream(file)) {
+            var buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        var hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hash.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package net.neoforged.serverstarterjar;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot of the size, modification time and (optionally) contents of a file, used to validate the starter's on-disk caches.
+ *
+ * @param path     the absolute path of the file
+ * @param size     the size of the file in bytes
+ * @param modified the last modification time of the file, in milliseconds
+ * @param crc      the CRC32 of the file contents, or {@code -1} if the contents were not hashed
+ */
+record FileStamp(Path path, long size, long modified, long crc) {
+    static FileStamp of(Path path, boolean hashContents) throws IOException {
+        var absolute = path.toAbsolutePath();
+        var attributes = Files.readAttributes(absolute, BasicFileAttributes.class);
+        return new FileStamp(absolute, attributes.size(), attributes.lastModifiedTime().toMillis(), hashContents ? crc(absolute) : -1);
+    }
+
+    /**
+     * {@return whether the file on disk still matches this stamp}
+     * The contents are only hashed once the size and modification time match, as reading them is the expensive part.
+     */
+    boolean isValid() {
+        try {
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (attributes.size() != size || attributes.lastModifiedTime().toMillis() != modified) return false;
+            return crc == -1 || crc(path) == crc;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static long crc(Path path) throws IOException {
+        var hash = new CRC32();
+        hash.update(Files.readAllBytes(path));
+        return hash.getValue();
+    }
+
+    void write(DataOutput out) throws IOException {
+        Utils.writeString(out, path.toString());
+        out.writeLong(size);
+        out.writeLong(modified);
+        out.writeLong(crc);
+    }
+
+    static FileStamp read(DataInput in) throws IOException {
+        return new FileStamp(Path.of(Utils.readString(in)), in.readLong(), in.readLong(), in.readLong());
+    }
+}
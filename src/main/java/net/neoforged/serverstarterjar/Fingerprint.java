@@ -0,0 +1,52 @@
+package net.neoforged.serverstarterjar;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * A fingerprint of the inputs a cache of the starter was built from, which is recorded in the cache file and compared on
+ * the next launch to tell whether the cache is still valid.
+ * <p>
+ * Every fingerprint covers the JVM, as the caches hold data derived from the JDK or only valid for a given JVM. Files are
+ * fingerprinted by path, size and modification time, so that fingerprinting never reads their contents.
+ */
+final class Fingerprint {
+    private final CRC32 hash = new CRC32();
+
+    private Fingerprint() {
+        add(System.getProperty("java.home"));
+        add(System.getProperty("java.vm.version"));
+    }
+
+    /**
+     * {@return a fingerprint of the current JVM, to which the inputs of the cache are then added}
+     */
+    static Fingerprint ofRuntime() {
+        return new Fingerprint();
+    }
+
+    Fingerprint add(String value) {
+        hash.update(value.getBytes(StandardCharsets.UTF_8));
+        // Separate the values, so that "ab" followed by "c" doesn't hash like "a" followed by "bc"
+        hash.update(0);
+        return this;
+    }
+
+    Fingerprint add(long value) {
+        return add(Long.toString(value));
+    }
+
+    /**
+     * Add the path, size and modification time of the given file.
+     */
+    Fingerprint addFile(Path file) throws IOException {
+        var stamp = FileStamp.of(file, false);
+        return add(stamp.path().toString()).add(stamp.size()).add(stamp.modified());
+    }
+
+    long value() {
+        return hash.getValue();
+    }
+}
@@ -0,0 +1,165 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.SecureClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.zip.ZipFile;
+
+/**
+ * A class loader for the jars of the class path which looks classes and resources up in a {@link ClassPathIndex}, going
+ * straight to the jars containing their directory instead of probing every jar of the class path in turn like the
+ * system class loader does.
+ * <p>
+ * Jars that provide the same directory are still searched in class path order. Jars are only opened once a class or
+ * resource is looked up in them.
+ */
+final class IndexedClassLoader extends SecureClassLoader {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private final Map<String, List<Jar>> directories = new HashMap<>();
+
+    IndexedClassLoader(List<Path> jars, ClassPathIndex index, ClassLoader parent) throws IOException {
+        super("serverstarter-classpath", parent);
+        for (Path path : jars) {
+            var jar = new Jar(path.toAbsolutePath());
+            for (String directory : index.directories(path)) {
+                directories.computeIfAbsent(directory, k -> new ArrayList<>(1)).add(jar);
+            }
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        var path = name.replace('.', '/').concat(".class");
+        for (Jar jar : directories.getOrDefault(ClassPathIndex.directoryOf(path), List.of())) {
+            try {
+                var file = jar.file();
+                var entry = file.getJarEntry(path);
+                if (entry == null) continue;
+
+                final byte[] bytes;
+                try (var in = file.getInputStream(entry)) {
+                    bytes = in.readAllBytes();
+                }
+
+                final int dot = name.lastIndexOf('.');
+                if (dot > 0) {
+                    definePackage(name.substring(0, dot), path, jar);
+                }
+                // The code signers are only known once the entry was read fully
+                return defineClass(name, bytes, 0, bytes.length, new CodeSource(jar.url, entry.getCodeSigners()));
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    @Nullable
+    @Override
+    protected URL findResource(String name) {
+        for (Jar jar : directories.getOrDefault(ClassPathIndex.directoryOf(name), List.of())) {
+            var url = jar.resource(name);
+            if (url != null) return url;
+        }
+        return null;
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        var urls = new ArrayList<URL>();
+        for (Jar jar : directories.getOrDefault(ClassPathIndex.directoryOf(name), List.of())) {
+            var url = jar.resource(name);
+            if (url != null) urls.add(url);
+        }
+        return Collections.enumeration(urls);
+    }
+
+    private void definePackage(String name, String classPath, Jar jar) throws IOException {
+        if (getDefinedPackage(name) != null) return;
+
+        var manifest = jar.file().getManifest();
+        try {
+            if (manifest == null) {
+                definePackage(name, null, null, null, null, null, null, null);
+                return;
+            }
+
+            // Like the URLClassLoader, the attributes of the package's section take precedence over the main attributes
+            var section = manifest.getAttributes(classPath.substring(0, classPath.lastIndexOf('/') + 1));
+            var main = manifest.getMainAttributes();
+            definePackage(name,
+                    attribute(section, main, Attributes.Name.SPECIFICATION_TITLE),
+                    attribute(section, main, Attributes.Name.SPECIFICATION_VERSION),
+                    attribute(section, main, Attributes.Name.SPECIFICATION_VENDOR),
+                    attribute(section, main, Attributes.Name.IMPLEMENTATION_TITLE),
+                    attribute(section, main, Attributes.Name.IMPLEMENTATION_VERSION),
+                    attribute(section, main, Attributes.Name.IMPLEMENTATION_VENDOR),
+                    "true".equalsIgnoreCase(attribute(section, main, Attributes.Name.SEALED)) ? jar.url : null);
+        } catch (IllegalArgumentException ignored) {
+            // The package was defined concurrently
+        }
+    }
+
+    @Nullable
+    private static String attribute(@Nullable Attributes section, Attributes main, Attributes.Name name) {
+        var value = section == null ? null : section.getValue(name);
+        return value == null ? main.getValue(name) : value;
+    }
+
+    private static final class Jar {
+        private final Path path;
+        private volatile JarFile file;
+        private URL url;
+        private URL base;
+
+        private Jar(Path path) {
+            this.path = path;
+        }
+
+        private JarFile file() throws IOException {
+            var file = this.file;
+            if (file == null) {
+                synchronized (this) {
+                    file = this.file;
+                    if (file == null) {
+                        // Building the URLs isn't free either, so it's only done for the jars that are used
+                        url = path.toUri().toURL();
+                        base = new URL("jar:" + url + "!/");
+                        file = this.file = new JarFile(path.toFile(), true, ZipFile.OPEN_READ, JarFile.runtimeVersion());
+                    }
+                }
+            }
+            return file;
+        }
+
+        @Nullable
+        private URL resource(String name) {
+            try {
+                var entry = file().getJarEntry(name);
+                if (entry == null) return null;
+                // Like the system class loader, point at the versioned entry of multi-release jars, which the URL can't
+                // select by itself, and encode the name so that names with spaces produce valid URLs
+                return new URL(base, new URI(null, null, entry.getRealName(), null).getRawPath());
+            } catch (IOException | URISyntaxException e) {
+                return null;
+            }
+        }
+    }
+}
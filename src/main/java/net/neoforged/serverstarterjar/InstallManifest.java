@@ -0,0 +1,265 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * The list of the files the installer put in the {@code libraries} folder, with their expected size and SHA-1, recorded
+ * once the installer ran so that a broken install can be detected and repaired at boot.
+ * <p>
+ * Files that can be downloaded (the libraries of the install profile) are repaired one by one. Files the installer produces
+ * itself, such as the outputs of its processors or the jars it extracts, require running the installer again, which then
+ * only re-runs the processors whose outputs don't match.
+ * <p>
+ * The manifest is tied to the run script the install wrote, so that it is discarded once the server is installed again,
+ * possibly with another version whose libraries and installer differ.
+ */
+final class InstallManifest {
+    static final Path FILE = Main.CACHE_DIR.resolve("install.bin");
+
+    private static final CacheFile FORMAT = new CacheFile(0x5353494D /* SSIM */, 2, "install manifest");
+
+    private final FileStamp runScript;
+    @Nullable
+    private final String installerUrl;
+    private final List<Entry> entries;
+
+    private InstallManifest(FileStamp runScript, @Nullable String installerUrl, List<Entry> entries) {
+        this.runScript = runScript;
+        this.installerUrl = installerUrl;
+        this.entries = entries;
+    }
+
+    /**
+     * {@return whether this manifest describes the install the given run script was written by, unchanged since}
+     */
+    boolean isFor(Path runScript) {
+        return this.runScript.path().equals(runScript.toAbsolutePath()) && this.runScript.isValid();
+    }
+
+    /**
+     * {@return the URL of the installer which created the install, if it was downloaded by the starter}
+     */
+    @Nullable
+    URL installerUrl() {
+        try {
+            return installerUrl == null ? null : URI.create(installerUrl).toURL();
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Record the libraries of the install profile which are present, and every file of the libraries folder that was
+     * written since the installer started.
+     *
+     * @param runScript    the run script written by the install
+     * @param installStart the time the installer started, in milliseconds
+     */
+    static InstallManifest record(Path librariesDir, @Nullable InstallProfile profile, Path runScript, long installStart, @Nullable URL installerUrl) throws IOException {
+        var urls = new HashMap<String, String>();
+        var files = new LinkedHashSet<Path>();
+        if (profile != null) {
+            for (InstallProfile.Library library : profile.libraries()) {
+                var file = library.resolve(librariesDir);
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                    if (library.url() != null) urls.put(library.path(), library.url());
+                }
+            }
+        }
+        if (Files.isDirectory(librariesDir)) {
+            try (var stream = Files.walk(librariesDir)) {
+                stream.filter(Files::isRegularFile)
+                        .filter(file -> {
+                            try {
+                                return Files.getLastModifiedTime(file).toMillis() >= installStart;
+                            } catch (IOException e) {
+                                return false;
+                            }
+                        })
+                        .forEach(files::add);
+            }
+        }
+
+        var entries = runParallel(new ArrayList<>(files), file -> {
+            var path = relativePath(librariesDir, file);
+            return new Entry(path, Files.size(file), Downloader.hash(file, "SHA-1"), urls.get(path));
+        });
+        return new InstallManifest(FileStamp.of(runScript, false), installerUrl == null ? null : installerUrl.toString(), entries);
+    }
+
+    /**
+     * Create a manifest from the libraries of the install profile, for installs that weren't done by the starter.
+     */
+    static InstallManifest fromProfile(InstallProfile profile, Path runScript, @Nullable URL installerUrl) throws IOException {
+        var entries = new ArrayList<Entry>();
+        for (InstallProfile.Library library : profile.libraries()) {
+            if (library.sha1() != null) {
+                entries.add(new Entry(library.path(), library.size(), library.sha1(), library.url()));
+            }
+        }
+        return new InstallManifest(FileStamp.of(runScript, false), installerUrl == null ? null : installerUrl.toString(), entries);
+    }
+
+    /**
+     * Check the files of the install in parallel.
+     *
+     * @param deep whether to hash the files, instead of only checking that they exist with the expected size
+     * @return the entries whose file is missing or corrupt
+     */
+    List<Entry> verify(Path librariesDir, boolean deep) throws IOException {
+        var results = runParallel(entries, entry -> {
+            var file = librariesDir.resolve(entry.path());
+            if (!Files.isRegularFile(file)) return entry;
+            if (entry.size() >= 0 && Files.size(file) != entry.size()) return entry;
+            if (deep && !Downloader.hash(file, "SHA-1").equalsIgnoreCase(entry.sha1())) return entry;
+            return null;
+        });
+        results.removeIf(entry -> entry == null);
+        return results;
+    }
+
+    /**
+     * Restore the given broken entries that can be downloaded, from the artifact cache or their URL.
+     *
+     * @return whether all entries were restored, otherwise the installer has to run again
+     */
+    boolean repair(List<Entry> broken, Path librariesDir, @Nullable ArtifactCache artifactCache) {
+        boolean repaired = true;
+        for (Entry entry : broken) {
+            repaired &= repair(entry, librariesDir, artifactCache);
+        }
+        return repaired;
+    }
+
+    /**
+     * Restore the file of the given entry from the artifact cache or its URL, if it has one.
+     *
+     * @return whether the file was restored
+     */
+    static boolean repair(Entry entry, Path librariesDir, @Nullable ArtifactCache artifactCache) {
+        var file = librariesDir.resolve(entry.path());
+        var checksum = new Downloader.Checksum("SHA-1", entry.sha1().toLowerCase(Locale.ROOT));
+        try {
+            if (artifactCache != null && artifactCache.copyTo(checksum, file)) {
+                System.err.println("Restored " + entry.path() + " from the artifact cache");
+                return true;
+            }
+            if (entry.url() == null) {
+                return false;
+            }
+
+            System.err.println("Downloading " + entry.path() + " from " + entry.url());
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Downloader.download(URI.create(entry.url()).toURL(), file);
+            if (!checksum.matches(file)) {
+                System.err.println("Downloaded " + entry.path() + " does not match the expected SHA-1 " + entry.sha1());
+                return false;
+            }
+            if (artifactCache != null) {
+                artifactCache.store(checksum, file);
+            }
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to repair " + entry.path() + ": " + e);
+            return false;
+        }
+    }
+
+    @Nullable
+    static InstallManifest load(Path file) {
+        return FORMAT.read(file, in -> {
+            var runScript = FileStamp.read(in);
+            var installerUrl = in.readBoolean() ? Utils.readString(in) : null;
+            final int count = in.readInt();
+            var entries = new ArrayList<Entry>(count);
+            for (int i = 0; i < count; i++) {
+                var path = Utils.readString(in);
+                var size = in.readLong();
+                var sha1 = Utils.readString(in);
+                var url = in.readBoolean() ? Utils.readString(in) : null;
+                entries.add(new Entry(path, size, sha1, url));
+            }
+            return new InstallManifest(runScript, installerUrl, entries);
+        });
+    }
+
+    void save(Path file) {
+        FORMAT.save(file, out -> {
+            runScript.write(out);
+            out.writeBoolean(installerUrl != null);
+            if (installerUrl != null) Utils.writeString(out, installerUrl);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                Utils.writeString(out, entry.path());
+                out.writeLong(entry.size());
+                Utils.writeString(out, entry.sha1());
+                out.writeBoolean(entry.url() != null);
+                if (entry.url() != null) Utils.writeString(out, entry.url());
+            }
+        });
+    }
+
+    private static String relativePath(Path librariesDir, Path file) {
+        return librariesDir.toAbsolutePath().relativize(file.toAbsolutePath()).toString().replace('\\', '/');
+    }
+
+    private static <T, R> List<R> runParallel(List<T> inputs, Task<T, R> task) throws IOException {
+        var results = new ArrayList<R>(inputs.size());
+        final int parallelism = Utils.parallelism(inputs.size(), true);
+        if (parallelism <= 1) {
+            for (T input : inputs) {
+                results.add(task.run(input));
+            }
+            return results;
+        }
+
+        final var executor = Utils.daemonPool("serverstarter-install-verify-", parallelism);
+        try {
+            var futures = new ArrayList<Future<R>>(inputs.size());
+            for (T input : inputs) {
+                futures.add(executor.submit((Callable<R>) () -> task.run(input)));
+            }
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task<T, R> {
+        @Nullable
+        R run(T input) throws IOException;
+    }
+
+    /**
+     * @param path the path of the file, relative to the libraries folder
+     * @param size the expected size of the file, or {@code -1} if unknown
+     * @param sha1 the expected SHA-1 of the file
+     * @param url  the URL the file can be downloaded from, or {@code null} if it is produced by the installer
+     */
+    record Entry(String path, long size, String sha1, @Nullable String url) {}
+}
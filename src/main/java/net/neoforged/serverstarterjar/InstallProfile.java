@@ -0,0 +1,149 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+/**
+ * The parts of an installer's {@code install_profile.json}, and of the version json it references, that the starter needs.
+ *
+ * @param libraries     the libraries the installer downloads, from both the install profile and the version json
+ * @param minecraft     the Minecraft version the profile installs, if specified
+ * @param serverJarPath where the vanilla server jar is installed, with the installer's placeholders, if specified
+ * @param data          the server side values of the profile's data entries, keyed on their name
+ * @param processors    the processors which run on the server side, in the order they are declared
+ */
+record InstallProfile(List<Library> libraries, @Nullable String minecraft, @Nullable String serverJarPath,
+                      Map<String, String> data, List<Processor> processors) {
+    @Nullable
+    static InstallProfile read(Path installer) throws IOException {
+        try (var jar = new JarFile(installer.toFile())) {
+            var profileEntry = jar.getEntry("install_profile.json");
+            if (profileEntry == null) return null;
+
+            final Map<String, Object> profile = parseObject(new String(jar.getInputStream(profileEntry).readAllBytes(), StandardCharsets.UTF_8));
+
+            // Key the libraries on their path, as the version json usually repeats some of the profile's libraries
+            var libraries = new LinkedHashMap<String, Library>();
+            readLibraries(profile, libraries);
+
+            var versionJson = Json.string(profile, "json");
+            if (versionJson != null) {
+                var versionEntry = jar.getEntry(versionJson.startsWith("/") ? versionJson.substring(1) : versionJson);
+                if (versionEntry != null) {
+                    readLibraries(parseObject(new String(jar.getInputStream(versionEntry).readAllBytes(), StandardCharsets.UTF_8)), libraries);
+                }
+            }
+
+            var data = new LinkedHashMap<String, String>();
+            Json.object(profile, "data").forEach((key, value) -> {
+                if (value instanceof Map<?, ?> sides && sides.get("server") instanceof String server) {
+                    data.put(key, server);
+                }
+            });
+
+            return new InstallProfile(new ArrayList<>(libraries.values()), Json.string(profile, "minecraft"),
+                    Json.string(profile, "serverJarPath"), data, readProcessors(profile));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid install profile in " + installer + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void readLibraries(Map<String, Object> json, Map<String, Library> libraries) {
+        for (Object element : Json.array(json, "libraries")) {
+            if (!(element instanceof Map<?, ?>)) continue;
+            @SuppressWarnings("unchecked") var library = (Map<String, Object>) element;
+
+            var artifact = Json.object(Json.object(library, "downloads"), "artifact");
+            var path = Json.string(artifact, "path");
+            if (path == null) continue;
+
+            final long size = artifact.get("size") instanceof Number number ? number.longValue() : -1;
+            var url = Json.string(artifact, "url");
+            libraries.putIfAbsent(path, new Library(Json.string(library, "name"), path, Json.string(artifact, "sha1"), size,
+                    url == null || url.isEmpty() ? null : url));
+        }
+    }
+
+    private static List<Processor> readProcessors(Map<String, Object> profile) {
+        var processors = new ArrayList<Processor>();
+        for (Object element : Json.array(profile, "processors")) {
+            if (!(element instanceof Map<?, ?>)) continue;
+            @SuppressWarnings("unchecked") var processor = (Map<String, Object>) element;
+
+            // Processors without sides run on both the client and the server
+            var sides = Json.array(processor, "sides");
+            var jar = Json.string(processor, "jar");
+            if (jar == null || (!sides.isEmpty() && !sides.contains("server"))) continue;
+
+            var outputs = new LinkedHashMap<String, String>();
+            Json.object(processor, "outputs").forEach((key, value) -> {
+                if (value instanceof String hash) outputs.put(key, hash);
+            });
+            processors.add(new Processor(jar, strings(Json.array(processor, "classpath")), strings(Json.array(processor, "args")), outputs));
+        }
+        return processors;
+    }
+
+    private static List<String> strings(List<Object> array) {
+        var strings = new ArrayList<String>(array.size());
+        for (Object element : array) {
+            if (element instanceof String string) strings.add(string);
+        }
+        return strings;
+    }
+
+    /**
+     * {@return the path of the artifact with the given maven coordinates ({@code group:name:version[:classifier][@extension]}), relative to the libraries folder}
+     */
+    static String artifactPath(String coordinates) {
+        var extension = "jar";
+        final int at = coordinates.indexOf('@');
+        if (at >= 0) {
+            extension = coordinates.substring(at + 1);
+            coordinates = coordinates.substring(0, at);
+        }
+        var parts = coordinates.split(":");
+        if (parts.length < 3) {
+            throw new IllegalArgumentException("Invalid maven coordinates " + coordinates);
+        }
+        var fileName = parts[1] + "-" + parts[2] + (parts.length > 3 ? "-" + parts[3] : "") + "." + extension;
+        return parts[0].replace('.', '/') + "/" + parts[1] + "/" + parts[2] + "/" + fileName;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parseObject(String text) {
+        if (Json.parse(text) instanceof Map<?, ?> map) {
+            return (Map<String, Object>) map;
+        }
+        throw new IllegalArgumentException("Expected an object");
+    }
+
+    /**
+     * @param name the maven coordinates of the library
+     * @param path the path of the library, relative to the {@code libraries} folder
+     * @param sha1 the SHA-1 of the library, if known
+     * @param size the size of the library in bytes, or {@code -1} if unknown
+     * @param url  the URL to download the library from, or {@code null} if it is extracted from the installer itself
+     */
+    record Library(@Nullable String name, String path, @Nullable String sha1, long size, @Nullable String url) {
+        Path resolve(Path librariesDir) {
+            return librariesDir.resolve(path);
+        }
+    }
+
+    /**
+     * @param jar       the maven coordinates of the processor jar
+     * @param classpath the maven coordinates of the libraries the processor runs with
+     * @param args      the arguments of the processor, with the installer's placeholders
+     * @param outputs   the expected SHA-1 of the files the processor produces, both with the installer's placeholders
+     */
+    record Processor(String jar, List<String> classpath, List<String> args, Map<String, String> outputs) {}
+}
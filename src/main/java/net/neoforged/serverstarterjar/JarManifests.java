@@ -0,0 +1,230 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the manifests of jars without opening them as {@link JarFile}s, which parses the whole central directory and
+ * allocates inflaters and caches the starter doesn't need.
+ * <p>
+ * Only the end of central directory record, the central directory and the manifest entry itself are read. The central
+ * directory is scanned for the manifest without decoding the names of the other entries. Jars this reader doesn't support
+ * (zip64 archives and unusual compression methods) are read through {@link JarFile} instead.
+ * <p>
+ * Manifests are cached per path for the whole launch, as the same jar is often queried several times.
+ */
+final class JarManifests {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int CEN_HEADER_SIZE = 46;
+    private static final int LOC_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int SHORT_COMMENT_SIZE = 1024;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final byte[] MANIFEST_NAME = JarFile.MANIFEST_NAME.getBytes(StandardCharsets.US_ASCII);
+
+    private static final Map<Path, Optional<Manifest>> CACHE = new ConcurrentHashMap<>();
+
+    private JarManifests() {}
+
+    /**
+     * {@return the manifest of the jar, or {@code null} if it has none}
+     */
+    @Nullable
+    static Manifest read(Path jar) throws IOException {
+        var key = jar.toAbsolutePath().normalize();
+        var cached = CACHE.get(key);
+        if (cached == null) {
+            cached = Optional.ofNullable(readUncached(key));
+            CACHE.put(key, cached);
+        }
+        return cached.orElse(null);
+    }
+
+    /**
+     * {@return the given class path followed, after each jar, by the jars its {@code Class-Path} attribute references}
+     * This is the order the system class loader searches them in: the references of a jar are searched right after it,
+     * recursively, and the references which don't exist or are already on the class path are ignored.
+     */
+    static List<Path> expandClassPath(List<Path> classPath) throws IOException {
+        var expanded = new LinkedHashSet<Path>();
+        for (Path path : classPath) {
+            expand(path.toAbsolutePath().normalize(), expanded);
+        }
+        return new ArrayList<>(expanded);
+    }
+
+    private static void expand(Path path, Set<Path> expanded) throws IOException {
+        if (!Files.exists(path) || !expanded.add(path) || !Files.isRegularFile(path)) return;
+        for (Path reference : classPath(path, read(path))) {
+            expand(reference, expanded);
+        }
+    }
+
+    /**
+     * {@return the files referenced by the {@code Class-Path} attribute of the manifest of the given jar}
+     * The references are URLs relative to the jar; the ones which aren't files are left out.
+     */
+    static List<Path> classPath(Path jar, @Nullable Manifest manifest) throws IOException {
+        var value = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+        if (value == null) return List.of();
+
+        var references = new ArrayList<Path>();
+        try {
+            for (String reference : value.split(" ")) {
+                if (reference.isEmpty()) continue;
+                var uri = jar.toUri().resolve(reference);
+                if ("file".equals(uri.getScheme())) {
+                    references.add(Path.of(uri).normalize());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Class-Path of " + jar, e);
+        }
+        return references;
+    }
+
+    @Nullable
+    @VisibleForTesting
+    static Manifest readUncached(Path jar) throws IOException {
+        try (var channel = FileChannel.open(jar)) {
+            var bytes = readManifestBytes(channel);
+            if (bytes != null) {
+                return bytes.length == 0 ? null : new Manifest(new ByteArrayInputStream(bytes));
+            }
+        } catch (DataFormatException | EOFException | RuntimeException e) {
+            // Fall back to the JDK which will either read it or give a proper error
+        }
+
+        try (var jarFile = new JarFile(jar.toFile())) {
+            return jarFile.getManifest();
+        }
+    }
+
+    /**
+     * {@return the bytes of the manifest, an empty array if the jar has no manifest, or {@code null} if the jar is not supported}
+     */
+    private static byte @Nullable [] readManifestBytes(FileChannel channel) throws IOException, DataFormatException {
+        final long size = channel.size();
+        if (size < EOCD_SIZE) return null;
+
+        // The end of central directory record is followed by a comment of up to 64KiB, which jars rarely have
+        int tailSize = (int) Math.min(size, EOCD_SIZE + SHORT_COMMENT_SIZE);
+        var tail = read(channel, size - tailSize, tailSize);
+        int eocd = findEndOfCentralDirectory(tail);
+        if (eocd < 0 && tailSize < size) {
+            tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT_SIZE);
+            tail = read(channel, size - tailSize, tailSize);
+            eocd = findEndOfCentralDirectory(tail);
+        }
+        if (eocd < 0) return null;
+
+        final int entries = Short.toUnsignedInt(tail.getShort(eocd + 10));
+        final long cenSize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+        final long cenOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+        // Zip64 archives store the real values in another record
+        if (entries == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL || cenOffset + cenSize > size) return null;
+
+        var cen = read(channel, cenOffset, (int) cenSize);
+        int position = 0;
+        for (int i = 0; i < entries; i++) {
+            if (cen.getInt(position) != CEN_SIGNATURE) return null;
+            final int nameLength = Short.toUnsignedInt(cen.getShort(position + 28));
+            final int extraLength = Short.toUnsignedInt(cen.getShort(position + 30));
+            final int commentLength = Short.toUnsignedInt(cen.getShort(position + 32));
+
+            if (isManifest(cen, position + CEN_HEADER_SIZE, nameLength)) {
+                final int method = Short.toUnsignedInt(cen.getShort(position + 10));
+                final long compressedSize = Integer.toUnsignedLong(cen.getInt(position + 20));
+                final long uncompressedSize = Integer.toUnsignedLong(cen.getInt(position + 24));
+                final long localOffset = Integer.toUnsignedLong(cen.getInt(position + 42));
+                if (compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL || localOffset == 0xFFFFFFFFL) return null;
+                return readEntry(channel, method, localOffset, (int) compressedSize, (int) uncompressedSize);
+            }
+
+            position += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return new byte[0];
+    }
+
+    private static byte @Nullable [] readEntry(FileChannel channel, int method, long localOffset, int compressedSize, int uncompressedSize) throws IOException, DataFormatException {
+        var local = read(channel, localOffset, LOC_HEADER_SIZE);
+        if (local.getInt(0) != LOC_SIGNATURE) return null;
+        // The local header may have a different extra field than the central directory
+        final long dataOffset = localOffset + LOC_HEADER_SIZE + Short.toUnsignedInt(local.getShort(26)) + Short.toUnsignedInt(local.getShort(28));
+
+        var data = read(channel, dataOffset, compressedSize);
+        if (method == STORED) {
+            var bytes = new byte[compressedSize];
+            data.get(bytes);
+            return bytes;
+        } else if (method == DEFLATED) {
+            var inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                var bytes = new byte[uncompressedSize];
+                int read = 0;
+                while (read < uncompressedSize && !inflater.finished()) {
+                    final int inflated = inflater.inflate(bytes, read, uncompressedSize - read);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    read += inflated;
+                }
+                return read == uncompressedSize ? bytes : null;
+            } finally {
+                inflater.end();
+            }
+        }
+        return null;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer tail) {
+        for (int i = tail.limit() - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isManifest(ByteBuffer cen, int nameOffset, int nameLength) {
+        if (nameLength != MANIFEST_NAME.length) return false;
+        for (int i = 0; i < nameLength; i++) {
+            // Like the JDK, look the manifest up ignoring the case of its name
+            if (Character.toUpperCase((char) cen.get(nameOffset + i)) != MANIFEST_NAME[i]) return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,82 @@
+package net.neoforged.serverstarterjar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * A reference to a module packaged as a jar, whose descriptor is already known.
+ * <p>
+ * Unlike the references created by {@link java.lang.module.ModuleFinder#of(Path...)}, creating this reference does not
+ * require opening the jar: it is only opened once the module is first read from.
+ */
+final class JarModuleReference extends ModuleReference {
+    private final Path jar;
+
+    JarModuleReference(ModuleDescriptor descriptor, Path jar) {
+        super(descriptor, jar.toUri());
+        this.jar = jar;
+    }
+
+    @Override
+    public ModuleReader open() throws IOException {
+        return new Reader(jar);
+    }
+
+    private static final class Reader implements ModuleReader {
+        private final JarFile jarFile;
+        private final String uri;
+        private volatile boolean closed;
+
+        private Reader(Path jar) throws IOException {
+            this.jarFile = new JarFile(jar.toFile(), true, ZipFile.OPEN_READ, JarFile.runtimeVersion());
+            this.uri = jar.toUri().toString();
+        }
+
+        private JarEntry getEntry(String name) throws IOException {
+            if (closed) throw new IOException("ModuleReader is closed");
+            return jarFile.getJarEntry(name);
+        }
+
+        @Override
+        public Optional<URI> find(String name) throws IOException {
+            var entry = getEntry(name);
+            if (entry == null) return Optional.empty();
+            try {
+                // Multi-release jars may resolve the entry to a versioned one, so we need to point to its real name
+                var encoded = new URI(null, null, entry.getRealName(), null).getRawPath();
+                return Optional.of(new URI("jar:" + uri + "!/" + encoded));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public Optional<InputStream> open(String name) throws IOException {
+            var entry = getEntry(name);
+            return entry == null ? Optional.empty() : Optional.of(jarFile.getInputStream(entry));
+        }
+
+        @Override
+        public Stream<String> list() throws IOException {
+            if (closed) throw new IOException("ModuleReader is closed");
+            return jarFile.versionedStream().map(JarEntry::getName);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            jarFile.close();
+        }
+    }
+}
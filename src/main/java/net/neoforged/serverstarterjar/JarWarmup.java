@@ -0,0 +1,89 @@
+package net.neoforged.serverstarterjar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarFile;
+import java.util.zip.ZipFile;
+
+/**
+ * Opens the jars of the module path on background threads while the server boots, so that their I/O overlaps with the
+ * bootstrap instead of happening on the main thread the first time a class is loaded from each jar.
+ * <p>
+ * Every jar is first opened as a {@link JarFile}, which reads its central directory. The jars are kept open, as the JDK
+ * shares the central directory it parsed between every {@link ZipFile} of the same file: when the module readers open
+ * the jars, they find it already parsed. Only once every jar was opened are the jars read fully, in module path order, to
+ * pull them into the page cache, so that reading the contents of a large jar doesn't delay opening the others.
+ */
+final class JarWarmup {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    // Never closed, like the module readers of the boot layer
+    private static final List<JarFile> OPENED = Collections.synchronizedList(new ArrayList<>());
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private JarWarmup() {}
+
+    /**
+     * Start warming up the given jars in the background. Entries which aren't jars are ignored.
+     */
+    static void start(Path[] entries) {
+        var jars = new ArrayList<Path>(entries.length);
+        for (Path entry : entries) {
+            if (Files.isRegularFile(entry)) jars.add(entry);
+        }
+        if (jars.isEmpty()) return;
+
+        final long start = System.nanoTime();
+        final var remaining = new AtomicInteger(jars.size());
+        final var bytes = new AtomicLong();
+        // The work is bound by I/O rather than by the processors, especially on network-backed disks
+        final int parallelism = Utils.parallelism(jars.size(), false);
+        final var executor = Utils.daemonPool("serverstarter-warmup-", parallelism);
+        // The executor takes the tasks in order, so the reads only start once every jar is being opened
+        for (Path jar : jars) {
+            executor.execute(() -> open(jar));
+        }
+        for (Path jar : jars) {
+            executor.execute(() -> {
+                bytes.addAndGet(read(jar));
+                if (remaining.decrementAndGet() == 0 && StartupTimings.isEnabled()) {
+                    System.err.printf("Warmed up %d jars (%d MiB) in %.3f ms%n", jars.size(), bytes.get() / (1024 * 1024), (System.nanoTime() - start) / 1_000_000.0);
+                }
+            });
+        }
+        // The threads exit once every jar was warmed up
+        executor.shutdown();
+    }
+
+    private static void open(Path jar) {
+        try {
+            OPENED.add(new JarFile(jar.toFile(), true, ZipFile.OPEN_READ, JarFile.runtimeVersion()));
+        } catch (IOException e) {
+            // The module reader will report it when the jar is actually used
+        }
+    }
+
+    private static long read(Path jar) {
+        try {
+            long read = 0;
+            final var buffer = BUFFER.get();
+            try (var channel = FileChannel.open(jar)) {
+                int count;
+                while ((count = channel.read(buffer.clear())) >= 0) {
+                    read += count;
+                }
+            }
+            return read;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
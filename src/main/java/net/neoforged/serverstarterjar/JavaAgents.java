@@ -0,0 +1,99 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Resolves the {@code -javaagent} options of the run script before their premains are invoked.
+ * <p>
+ * The agent jars are opened and validated in parallel, and every invalid agent is reported at once rather than one per
+ * launch. Their manifests are read through {@link JarManifests}, so that no jar is left open.
+ */
+final class JavaAgents {
+
+    private JavaAgents() {}
+
+    /**
+     * @param jar          the absolute path of the agent jar
+     * @param options      the options passed to the premain
+     * @param premainClass the class declaring the premain
+     * @param resolveNanos how long opening and validating the jar took
+     */
+    record JavaAgent(Path jar, String options, String premainClass, long resolveNanos) {}
+
+    /**
+     * Resolve the given agents, in the form {@code <jar>[=<options>]}.
+     *
+     * @return the agents in the order they were declared, or {@code null} if any of them is invalid
+     */
+    @Nullable
+    static List<JavaAgent> resolve(List<String> specs) {
+        var results = new ArrayList<Result>(specs.size());
+        final int parallelism = Utils.parallelism(specs.size(), true);
+        if (parallelism <= 1) {
+            for (String spec : specs) {
+                results.add(resolve(spec));
+            }
+        } else {
+            final var executor = Utils.daemonPool("serverstarter-agent-resolve-", parallelism);
+            try {
+                var futures = new ArrayList<Future<Result>>(specs.size());
+                for (String spec : specs) {
+                    futures.add(executor.submit((Callable<Result>) () -> resolve(spec)));
+                }
+                for (Future<Result> future : futures) {
+                    results.add(future.get());
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                throw new IllegalStateException("Failed to resolve Java agents", e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        var agents = new ArrayList<JavaAgent>(results.size());
+        boolean valid = true;
+        for (Result result : results) {
+            if (result.error() != null) {
+                System.err.println("Java agent: " + result.error());
+                valid = false;
+            } else {
+                agents.add(result.agent());
+            }
+        }
+        return valid ? agents : null;
+    }
+
+    private static Result resolve(String spec) {
+        final long start = System.nanoTime();
+        var parts = spec.split("=", 2);
+        var options = parts.length == 2 ? parts[1] : "";
+        var jar = Path.of(parts[0]).toAbsolutePath();
+        if (!Files.isRegularFile(jar)) {
+            return new Result(null, jar + " does not exist");
+        }
+
+        try {
+            var manifest = JarManifests.read(jar);
+            if (manifest == null) {
+                return new Result(null, jar + " has no manifest");
+            }
+            var premainClass = manifest.getMainAttributes().getValue("Premain-Class");
+            if (premainClass == null) {
+                return new Result(null, jar + " has no Premain-Class attribute.");
+            }
+            return new Result(new JavaAgent(jar, options, premainClass, System.nanoTime() - start), null);
+        } catch (Exception e) {
+            return new Result(null, "failed to open " + jar + ": " + e);
+        }
+    }
+
+    private record Result(@Nullable JavaAgent agent, @Nullable String error) {}
+}
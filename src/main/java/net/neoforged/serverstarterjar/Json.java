@@ -0,0 +1,195 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON parser, enough to read the installer's profiles without bundling a JSON library in the starter.
+ * <p>
+ * Objects are parsed to {@link Map maps}, arrays to {@link List lists}, numbers to {@link Long longs} or {@link Double doubles},
+ * and strings, booleans and {@code null} to their Java counterparts.
+ */
+final class Json {
+    private final String text;
+    private int index;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    @Nullable
+    static Object parse(String text) {
+        var json = new Json(text);
+        var value = json.value();
+        json.skipWhitespace();
+        if (json.index != text.length()) {
+            throw json.error("Trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * {@return the object with the given key in the object, or an empty map if there is none}
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> object(Map<String, Object> object, String key) {
+        return object.get(key) instanceof Map<?, ?> map ? (Map<String, Object>) map : Map.of();
+    }
+
+    /**
+     * {@return the array with the given key in the object, or an empty list if there is none}
+     */
+    @SuppressWarnings("unchecked")
+    static List<Object> array(Map<String, Object> object, String key) {
+        return object.get(key) instanceof List<?> list ? (List<Object>) list : List.of();
+    }
+
+    @Nullable
+    static String string(Map<String, Object> object, String key) {
+        return object.get(key) instanceof String string ? string : null;
+    }
+
+    @Nullable
+    private Object value() {
+        skipWhitespace();
+        if (index >= text.length()) throw error("Unexpected end of input");
+        final char ch = text.charAt(index);
+        return switch (ch) {
+            case '{' -> object();
+            case '[' -> array();
+            case '"' -> string();
+            case 't' -> literal("true", Boolean.TRUE);
+            case 'f' -> literal("false", Boolean.FALSE);
+            case 'n' -> literal("null", null);
+            default -> {
+                if (ch == '-' || (ch >= '0' && ch <= '9')) yield number();
+                throw error("Unexpected character '" + ch + "'");
+            }
+        };
+    }
+
+    private Map<String, Object> object() {
+        var map = new LinkedHashMap<String, Object>();
+        index++;
+        skipWhitespace();
+        if (peek() == '}') {
+            index++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') throw error("Expected a key");
+            var key = string();
+            skipWhitespace();
+            expect(':');
+            map.put(key, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                index++;
+            } else {
+                expect('}');
+                return map;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        var list = new ArrayList<>();
+        index++;
+        skipWhitespace();
+        if (peek() == ']') {
+            index++;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+                index++;
+            } else {
+                expect(']');
+                return list;
+            }
+        }
+    }
+
+    private String string() {
+        index++;
+        var builder = new StringBuilder();
+        while (true) {
+            if (index >= text.length()) throw error("Unterminated string");
+            final char ch = text.charAt(index++);
+            if (ch == '"') return builder.toString();
+            if (ch != '\\') {
+                builder.append(ch);
+                continue;
+            }
+
+            if (index >= text.length()) throw error("Unterminated string");
+            final char escaped = text.charAt(index++);
+            switch (escaped) {
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'n' -> builder.append('\n');
+                case 'r' -> builder.append('\r');
+                case 't' -> builder.append('\t');
+                case 'u' -> {
+                    if (index + 4 > text.length()) throw error("Invalid unicode escape");
+                    builder.append((char) Integer.parseInt(text, index, index + 4, 16));
+                    index += 4;
+                }
+                default -> builder.append(escaped);
+            }
+        }
+    }
+
+    private Object number() {
+        final int start = index;
+        boolean decimal = false;
+        while (index < text.length()) {
+            final char ch = text.charAt(index);
+            if (ch == '.' || ch == 'e' || ch == 'E') {
+                decimal = true;
+            } else if (!(ch == '-' || ch == '+' || (ch >= '0' && ch <= '9'))) {
+                break;
+            }
+            index++;
+        }
+        var number = text.substring(start, index);
+        try {
+            return decimal ? (Object) Double.parseDouble(number) : (Object) Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + number);
+        }
+    }
+
+    @Nullable
+    private Object literal(String literal, @Nullable Object value) {
+        if (!text.startsWith(literal, index)) throw error("Unexpected literal");
+        index += literal.length();
+        return value;
+    }
+
+    private void expect(char ch) {
+        if (peek() != ch) throw error("Expected '" + ch + "'");
+        index++;
+    }
+
+    private char peek() {
+        return index < text.length() ? text.charAt(index) : 0;
+    }
+
+    private void skipWhitespace() {
+        while (index < text.length() && Character.isWhitespace(text.charAt(index))) {
+            index++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at index " + index);
+    }
+}
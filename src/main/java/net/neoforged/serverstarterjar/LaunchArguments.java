@@ -0,0 +1,212 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The arguments of the java invocation of the run script, split in one pass following the grammar of the java launcher:
+ * the options come first, and the first argument which isn't an option is the main class, followed by the program arguments.
+ * Launching a jar with {@code -jar <jar>} ends the options too, and the arguments following the jar are the program arguments.
+ * <p>
+ * Options taking a value are indexed by their canonical name, keeping repeated options in order. Both the
+ * {@code --option value} and the {@code --option=value} forms are supported.
+ */
+final class LaunchArguments {
+    static final String MODULE_PATH = "--module-path";
+    static final String CLASS_PATH = "--class-path";
+    static final String ADD_MODULES = "--add-modules";
+    static final String ADD_OPENS = "--add-opens";
+    static final String ADD_EXPORTS = "--add-exports";
+
+    /**
+     * The options of the java launcher that take their value as the following argument, mapped to their canonical name.
+     */
+    private static final Map<String, String> VALUE_OPTIONS = Map.ofEntries(
+            Map.entry("-p", MODULE_PATH),
+            Map.entry(MODULE_PATH, MODULE_PATH),
+            Map.entry("-cp", CLASS_PATH),
+            Map.entry("-classpath", CLASS_PATH),
+            Map.entry(CLASS_PATH, CLASS_PATH),
+            Map.entry(ADD_MODULES, ADD_MODULES),
+            Map.entry(ADD_OPENS, ADD_OPENS),
+            Map.entry(ADD_EXPORTS, ADD_EXPORTS),
+            Map.entry("--add-reads", "--add-reads"),
+            Map.entry("--upgrade-module-path", "--upgrade-module-path"),
+            Map.entry("--limit-modules", "--limit-modules"),
+            Map.entry("--patch-module", "--patch-module"),
+            Map.entry("--enable-native-access", "--enable-native-access")
+    );
+    /**
+     * The options that only support the {@code --option=value} form.
+     */
+    private static final Set<String> JOINED_OPTIONS = Set.of("--illegal-access");
+
+    private final Map<String, List<String>> options;
+    private final Map<String, String> systemProperties;
+    private final List<String> javaAgents;
+    private final List<String> otherOptions;
+    @Nullable
+    private final String jar;
+    @Nullable
+    private final String mainClass;
+    private final List<String> programArgs;
+
+    private LaunchArguments(Map<String, List<String>> options, Map<String, String> systemProperties, List<String> javaAgents,
+                            List<String> otherOptions, @Nullable String jar, @Nullable String mainClass, List<String> programArgs) {
+        this.options = options;
+        this.systemProperties = systemProperties;
+        this.javaAgents = javaAgents;
+        this.otherOptions = otherOptions;
+        this.jar = jar;
+        this.mainClass = mainClass;
+        this.programArgs = programArgs;
+    }
+
+    static LaunchArguments parse(List<String> arguments) {
+        var options = new LinkedHashMap<String, List<String>>();
+        var systemProperties = new LinkedHashMap<String, String>();
+        var javaAgents = new ArrayList<String>();
+        var otherOptions = new ArrayList<String>();
+        String jar = null;
+        String mainClass = null;
+
+        int i = 0;
+        while (i < arguments.size()) {
+            var argument = arguments.get(i++);
+            if (!argument.startsWith("-")) {
+                mainClass = argument;
+                break;
+            }
+
+            if (argument.equals("-jar")) {
+                if (i < arguments.size()) jar = arguments.get(i++);
+                break;
+            } else if (argument.startsWith("-D")) {
+                // -Dname is valid, and sets the property to an empty string
+                var property = argument.substring("-D".length()).split("=", 2);
+                systemProperties.put(property[0], property.length == 2 ? property[1] : "");
+            } else if (argument.startsWith("-javaagent:")) {
+                javaAgents.add(argument.substring("-javaagent:".length()));
+            } else if (VALUE_OPTIONS.containsKey(argument)) {
+                if (i < arguments.size()) {
+                    options.computeIfAbsent(VALUE_OPTIONS.get(argument), k -> new ArrayList<>()).add(arguments.get(i++));
+                }
+            } else {
+                final int separator = argument.indexOf('=');
+                final var name = separator > 0 ? argument.substring(0, separator) : null;
+                if (name != null && name.startsWith("--") && (VALUE_OPTIONS.containsKey(name) || JOINED_OPTIONS.contains(name))) {
+                    options.computeIfAbsent(VALUE_OPTIONS.getOrDefault(name, name), k -> new ArrayList<>()).add(argument.substring(separator + 1));
+                } else {
+                    otherOptions.add(argument);
+                }
+            }
+        }
+
+        var programArgs = new ArrayList<>(arguments.subList(i, arguments.size()));
+        return new LaunchArguments(options, systemProperties, javaAgents, otherOptions, jar, mainClass, programArgs);
+    }
+
+    /**
+     * {@return the first value of the option with the given canonical name, if specified}
+     */
+    @Nullable
+    String value(String option) {
+        var values = options.get(option);
+        return values == null ? null : values.get(0);
+    }
+
+    /**
+     * {@return the values of the option with the given canonical name, in the order they were specified}
+     */
+    List<String> values(String option) {
+        return options.getOrDefault(option, List.of());
+    }
+
+    /**
+     * {@return the system properties set with {@code -D}, in the order they were specified}
+     */
+    Map<String, String> systemProperties() {
+        return Collections.unmodifiableMap(systemProperties);
+    }
+
+    /**
+     * {@return the {@code -javaagent} specifications, in the form {@code <jar>[=<options>]}}
+     */
+    List<String> javaAgents() {
+        return Collections.unmodifiableList(javaAgents);
+    }
+
+    /**
+     * {@return the options this model doesn't know about, such as {@code -ea}}
+     */
+    List<String> otherOptions() {
+        return Collections.unmodifiableList(otherOptions);
+    }
+
+    /**
+     * {@return the jar to launch, if launching with {@code -jar}}
+     */
+    @Nullable
+    String jar() {
+        return jar;
+    }
+
+    /**
+     * {@return the main class, or {@code null} if launching a jar or if the arguments don't specify one}
+     */
+    @Nullable
+    String mainClass() {
+        return mainClass;
+    }
+
+    List<String> programArgs() {
+        return Collections.unmodifiableList(programArgs);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(options.size());
+        for (var option : options.entrySet()) {
+            Utils.writeString(out, option.getKey());
+            Utils.writeStrings(out, option.getValue());
+        }
+        out.writeInt(systemProperties.size());
+        for (var property : systemProperties.entrySet()) {
+            Utils.writeString(out, property.getKey());
+            Utils.writeString(out, property.getValue());
+        }
+        Utils.writeStrings(out, javaAgents);
+        Utils.writeStrings(out, otherOptions);
+        out.writeBoolean(jar != null);
+        if (jar != null) Utils.writeString(out, jar);
+        out.writeBoolean(mainClass != null);
+        if (mainClass != null) Utils.writeString(out, mainClass);
+        Utils.writeStrings(out, programArgs);
+    }
+
+    static LaunchArguments read(DataInput in) throws IOException {
+        final int optionCount = in.readInt();
+        var options = new LinkedHashMap<String, List<String>>(optionCount);
+        for (int i = 0; i < optionCount; i++) {
+            options.put(Utils.readString(in), Utils.readStrings(in));
+        }
+        final int propertyCount = in.readInt();
+        var systemProperties = new LinkedHashMap<String, String>(propertyCount);
+        for (int i = 0; i < propertyCount; i++) {
+            systemProperties.put(Utils.readString(in), Utils.readString(in));
+        }
+        var javaAgents = Utils.readStrings(in);
+        var otherOptions = Utils.readStrings(in);
+        var jar = in.readBoolean() ? Utils.readString(in) : null;
+        var mainClass = in.readBoolean() ? Utils.readString(in) : null;
+        return new LaunchArguments(options, systemProperties, javaAgents, otherOptions, jar, mainClass, Utils.readStrings(in));
+    }
+}
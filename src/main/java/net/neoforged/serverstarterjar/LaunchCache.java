@@ -0,0 +1,85 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * A persistent cache of the launch plan resolved from the run script, so that warm starts don't have to read
+ * the run script, expand its argument files and split the arguments again.
+ * <p>
+ * The plan holds both the expanded arguments, which a child JVM is launched with, and the {@link LaunchArguments} parsed
+ * from them (main class, module and class paths, opens and exports, system properties and agents), which the server is
+ * launched from in the current JVM.
+ * <p>
+ * The cache is keyed on the size, modification time and CRC32 of the run script and of every argument file it references,
+ * and is discarded as soon as any of them changes. The contents are only hashed when the size and modification time match.
+ */
+final class LaunchCache {
+    private static final CacheFile FORMAT = new CacheFile(0x53534C50 /* SSLP */, 3, "launch cache");
+
+    private LaunchCache() {}
+
+    @Nullable
+    static Plan load(Path cacheFile, Path runPath) {
+        // A corrupt cache is not fatal, we simply parse the script again
+        return FORMAT.read(cacheFile, in -> {
+            if (!Utils.readString(in).equals(runPath.toAbsolutePath().toString())) return null;
+
+            final int stampCount = in.readInt();
+            for (int i = 0; i < stampCount; i++) {
+                if (!FileStamp.read(in).isValid()) return null;
+            }
+
+            var arguments = Utils.readStrings(in);
+            var jvmOptions = Utils.readStrings(in);
+
+            final int argFileCount = in.readInt();
+            var argFiles = new ArrayList<Path>(argFileCount);
+            for (int i = 0; i < argFileCount; i++) {
+                argFiles.add(Path.of(Utils.readString(in)));
+            }
+            return new Plan(new Main.RunScript(arguments, jvmOptions, argFiles), LaunchArguments.read(in));
+        });
+    }
+
+    static void save(Path cacheFile, Path runPath, Plan plan) {
+        final var script = plan.script();
+        try {
+            var stamps = new ArrayList<FileStamp>(script.argFiles().size() + 1);
+            stamps.add(FileStamp.of(runPath, true));
+            for (Path argFile : script.argFiles()) {
+                stamps.add(FileStamp.of(argFile, true));
+            }
+
+            FORMAT.write(cacheFile, out -> {
+                Utils.writeString(out, runPath.toAbsolutePath().toString());
+
+                out.writeInt(stamps.size());
+                for (FileStamp stamp : stamps) {
+                    stamp.write(out);
+                }
+
+                Utils.writeStrings(out, script.arguments());
+                Utils.writeStrings(out, script.jvmOptions());
+
+                out.writeInt(script.argFiles().size());
+                for (Path argFile : script.argFiles()) {
+                    Utils.writeString(out, argFile.toString());
+                }
+
+                plan.arguments().write(out);
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to write " + FORMAT.description() + " " + cacheFile + ": " + e);
+        }
+    }
+
+    /**
+     * @param script    the run script, with its argument files expanded
+     * @param arguments the arguments of the script, parsed
+     */
+    record Plan(Main.RunScript script, LaunchArguments arguments) {}
+}
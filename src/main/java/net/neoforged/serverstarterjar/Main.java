@@ -1,6 +1,7 @@
 package net.neoforged.serverstarterjar;
 
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.VisibleForTesting;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,6 +13,7 @@ import java.lang.module.FindException;
 import java.lang.module.InvalidModuleDescriptorException;
 import java.lang.module.ModuleFinder;
 import java.lang.module.ModuleReference;
+import java.lang.module.ResolvedModule;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
@@ -27,8 +29,10 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
@@ -36,6 +40,11 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class Main {
+    /**
+     * The directory in which the starter keeps its caches, relative to the server directory.
+     */
+    static final Path CACHE_DIR = Path.of(".serverstarter");
+
     private static final OperatingSystem OS = System.getProperty("os.name").startsWith("Windows") ? OperatingSystem.WINDOWS : OperatingSystem.NIX;
     private static final MethodHandle loadModule;
     private static final MethodHandle addExportsToAllUnnamed;
@@ -47,11 +56,15 @@ public class Main {
 
     static {
         // Open the needed packages below to ourselves
-        open(ModuleLayer.boot().findModule("java.base").orElseThrow(), "java.lang", Main.class.getModule());
-        open(ModuleLayer.boot().findModule("java.base").orElseThrow(), "jdk.internal.loader", Main.class.getModule());
-        export(ModuleLayer.boot().findModule("java.base").orElseThrow(), "jdk.internal.loader", Main.class.getModule());
-        export(ModuleLayer.boot().findModule("java.base").orElseThrow(), "jdk.internal.module", Main.class.getModule());
-        open(ModuleLayer.boot().findModule("java.base").orElseThrow(), "java.nio.file.spi", Main.class.getModule());
+        final var javaBase = ModuleLayer.boot().findModule("java.base").orElseThrow();
+        final var redefinitions = new ModuleRedefinitions();
+        redefinitions.open(javaBase, "java.lang", Main.class.getModule());
+        redefinitions.open(javaBase, "jdk.internal.loader", Main.class.getModule());
+        redefinitions.export(javaBase, "jdk.internal.loader", Main.class.getModule());
+        redefinitions.export(javaBase, "jdk.internal.module", Main.class.getModule());
+        redefinitions.open(javaBase, "java.nio.file.spi", Main.class.getModule());
+        redefinitions.open(javaBase, "java.lang.module", Main.class.getModule());
+        redefinitions.apply(Agent.instrumentation);
 
         var lookup = MethodHandles.lookup();
         try {
@@ -122,30 +135,111 @@ public class Main {
             startArgs.remove("--installer-force");
             forceInstaller = true;
         }
+        // Install the server from the install profile, downloading the libraries and running the processors concurrently
+        final boolean parallelInstall = startArgs.remove("--installer-parallel");
+        // The artifact cache shares the installer and libraries between the server instances of a machine
+        ArtifactCache artifactCache = null;
+        long artifactCacheSize = ArtifactCache.DEFAULT_MAX_SIZE;
+        if (startArgs.contains("--artifact-cache-size")) {
+            var size = startArgs.get(startArgs.indexOf("--artifact-cache-size") + 1);
+            startArgs.remove("--artifact-cache-size");
+            startArgs.remove(size);
+            artifactCacheSize = ArtifactCache.parseSize(size);
+        }
+        if (startArgs.contains("--artifact-cache")) {
+            var dir = startArgs.get(startArgs.indexOf("--artifact-cache") + 1);
+            startArgs.remove("--artifact-cache");
+            startArgs.remove(dir);
+            artifactCache = new ArtifactCache(Path.of(dir), artifactCacheSize);
+        }
+        // Hash the installed libraries at boot rather than only checking that they exist
+        final boolean verifyInstall = startArgs.remove("--verify-install");
+        // Caching of the launch plan is opt-in
+        final boolean useCache = startArgs.remove("--cache");
+        // Launch in a child JVM using a class data sharing archive
+        final boolean useCds = startArgs.remove("--cds");
+        // Launch in a child JVM if the run script specifies JVM options the current JVM wasn't started with
+        final boolean fork = startArgs.remove("--fork");
+        // Launch in a child JVM which is restarted when the server crashes or stops responding
+        final boolean supervise = startArgs.remove("--supervise");
+        // In jar mode, load the class path through a loader which looks classes up in an index of the jars
+        final boolean classPathIndex = startArgs.remove("--classpath-index");
+        // Open the module path jars in the background while the server boots
+        final boolean warmup = startArgs.remove("--warmup");
+        // Rebuild the module graph from a snapshot of the last resolution rather than resolving the module path
+        final boolean configurationSnapshot = startArgs.remove("--configuration-snapshot");
+        // Read the modules from a single image holding the uncompressed contents of the module path
+        final boolean moduleImage = startArgs.remove("--module-image");
+        // Open the jars nested in other jars from copies extracted once to the cache folder
+        final boolean jijCache = startArgs.remove("--jij-cache");
+        // Only define the modules reachable from the main class and --add-modules, leaving the others to the class path
+        final boolean pruneModules = startArgs.remove("--prune-modules");
+        // Record the classes the server loads, and load them on background threads on the next launches
+        ClassPreload.Mode classPreload = null;
+        if (startArgs.contains("--class-preload")) {
+            var mode = startArgs.get(startArgs.indexOf("--class-preload") + 1);
+            startArgs.remove("--class-preload");
+            startArgs.remove(mode);
+            classPreload = ClassPreload.Mode.parse(mode);
+        }
+
+        // Timings are printed to stderr, unless a file to write them to is specified
+        Path timingsFile = null;
+        if (startArgs.contains("--timings-file")) {
+            var file = startArgs.get(startArgs.indexOf("--timings-file") + 1);
+            startArgs.remove("--timings-file");
+            startArgs.remove(file);
+            timingsFile = Path.of(file);
+            StartupTimings.enable();
+        }
+        if (startArgs.remove("--timings")) {
+            StartupTimings.enable();
+        }
+
+        StartupTimings.begin("scriptDiscovery");
 
         // Attempt to locate the run.bat/run.sh file
         final var runPath = Path.of(OS.runFile);
         if (Files.notExists(runPath)) {
             // If it doesn't exist, attempt to find a file whose name ends in "installer.jar" and run it as an installer
             System.err.println("Failed to find run file at " + runPath + ", attempting to run installer");
-            if (!runInstaller(installerUrl)) {
+            if (!runInstaller(installerUrl, artifactCache, parallelInstall)) {
+                System.exit(1);
+            }
+        } else {
+            StartupTimings.begin("installVerify");
+            if (!verifyInstall(installerUrl, artifactCache, verifyInstall, parallelInstall)) {
                 System.exit(1);
             }
         }
 
-        final var script = parseScript(runPath);
+        final var launchCache = CACHE_DIR.resolve("launch.bin");
+        StartupTimings.begin("parseScript");
+        final var cachedPlan = useCache ? LaunchCache.load(launchCache, runPath) : null;
+        var script = cachedPlan == null ? null : cachedPlan.script();
+        // The arguments parsed from the script, if they are known already
+        var parsedArgs = cachedPlan == null ? null : cachedPlan.arguments();
         if (script == null) {
-            System.err.println("Failed to find startup arguments using run script path " + runPath);
-            System.exit(1);
+            final var command = getCommand(runPath);
+            StartupTimings.begin("argfileExpansion");
+            script = command == null ? null : expandCommand(command);
+            if (script == null) {
+                System.err.println("Failed to find startup arguments using run script path " + runPath);
+                System.exit(1);
+            }
+
+            if (useCache) {
+                StartupTimings.begin("launchCacheSave");
+                parsedArgs = LaunchArguments.parse(script.arguments);
+                LaunchCache.save(launchCache, runPath, new LaunchCache.Plan(script, parsedArgs));
+            }
         }
 
         if (forceInstaller) {
-            var argsFilePath = script.argFiles.stream()
-                    .filter(arg -> OS.argsFile.equals(arg.getFileName().toString()) && arg.getParent() != null)
-                    .findFirst().orElse(null);
-            if (argsFilePath != null) {
-                var actualVersion = argsFilePath.getParent().getFileName().toString();
-                var resolvedInstaller = resolveInstaller(installerUrl);
+            StartupTimings.begin("installerCheck");
+            var actualVersion = getInstalledVersion(script);
+            if (actualVersion != null) {
+                var resolvedInstaller = resolveInstaller(installerUrl, artifactCache);
                 if (resolvedInstaller != null) {
                     var installerVersion = getInstallerVersion(resolvedInstaller);
                     if (installerVersion == null) {
@@ -153,7 +247,14 @@ public class Main {
                     } else if (!installerVersion.equals(actualVersion)) {
                         System.err.println("Installer version and actual version differ: " + installerVersion + " vs " + actualVersion);
                         System.err.println("Running installer " + resolvedInstaller);
-                        if (!runInstaller(installerUrl)) {
+                        if (!runInstaller(installerUrl, artifactCache, parallelInstall)) {
+                            System.exit(1);
+                        }
+                        // Launch the version that was just installed rather than the one the previous run script launched
+                        script = parseScript(runPath);
+                        parsedArgs = null;
+                        if (script == null) {
+                            System.err.println("Failed to find startup arguments using run script path " + runPath);
                             System.exit(1);
                         }
                     }
@@ -161,11 +262,34 @@ public class Main {
             }
         }
 
-        final var args = script.arguments;
+        if (supervise) {
+            System.exit(Supervisor.run(script, startArgs, useCds));
+        }
+
+        if (useCds) {
+            System.exit(CdsArchive.launch(script, startArgs));
+        }
+
+        if (fork) {
+            final var missingJvmOptions = ChildJvm.missingOptions(script.jvmOptions);
+            if (!missingJvmOptions.isEmpty()) {
+                System.out.println("Launching in a child JVM to apply the JVM options " + String.join(" ", missingJvmOptions));
+                System.exit(ChildJvm.run(ChildJvm.command(script, List.of(), startArgs)));
+            }
+        }
+
+        final var args = parsedArgs != null ? parsedArgs : LaunchArguments.parse(script.arguments);
+        if (!args.otherOptions().isEmpty()) {
+            System.err.println("Ignoring unsupported options of the run script: " + String.join(" ", args.otherOptions()));
+        }
+
+        // The loader the main class is loaded from
+        ClassLoader appLoader = ClassLoader.getSystemClassLoader();
 
         // If we're able to find a jar in the invocation, load that jar on the boot CP, and invoke it
-        var jar = findValue(args, "-jar");
+        var jar = args.jar();
         if (jar != null) {
+            StartupTimings.begin("jarClassPath");
             var jarFile = new File(jar);
             System.out.println("Launching in jar mode, using jar: " + jarFile.getAbsolutePath());
 
@@ -173,25 +297,38 @@ public class Main {
             var cp = attrs.classpath;
             cp.add(0, jarFile.toPath());
 
-            addToClassPath(cp);
+            if (classPathIndex) {
+                appLoader = createIndexedLoader(cp);
+                Thread.currentThread().setContextClassLoader(appLoader);
+            } else {
+                addToClassPath(cp);
+            }
 
             if (attrs.premainClass != null) {
-                invokeAgentPremain(attrs.premainClass, "", jar);
+                invokeAgentPremain(attrs.premainClass, "", jar, appLoader);
             }
         }
 
         // Otherwise, go back to trying to find the module or classpath
         else {
-            loadJavaAgents(args);
+            StartupTimings.begin("loadJavaAgents");
+            loadJavaAgents(args.javaAgents());
 
-            final var modulePathArg = findValue(args, "-p", "--module-path");
+            final var modulePathArg = args.value(LaunchArguments.MODULE_PATH);
 
             ModuleLayer bootLayer;
             if (modulePathArg != null) {
-                final var bootPath = installModulePath(getModulePath(modulePathArg));
+                StartupTimings.begin("installModulePath");
+                final var modulePath = getModulePath(modulePathArg);
+                final var bootPath = installModulePath(modulePath, useCache ? ModuleIndex.load(CACHE_DIR.resolve("modules.bin")) : null,
+                        configurationSnapshot ? CACHE_DIR.resolve("configuration.bin") : null, moduleImage ? CACHE_DIR.resolve("modules.image") : null,
+                        pruneModules ? ModulePruning.of(args) : null);
+                if (warmup) {
+                    StartupTimings.begin("warmup");
+                    JarWarmup.start(modulePath);
+                }
 
-                // The args file specifies "--add-modules ALL-MODULE-PATH" which is completely useless now, so we ignore it
-                findValue(args, "--add-modules");
+                // The args file specifies "--add-modules ALL-MODULE-PATH" which is completely useless now (or which we're pruning), so we ignore it
 
                 // Update the boot path
                 SET_bootLayer.invokeExact(bootPath.layer());
@@ -201,66 +338,102 @@ public class Main {
                 bootLayer = ModuleLayer.boot();
             }
 
-            findValues(args, "--add-opens").stream()
+            StartupTimings.begin("addOpensExports");
+            // Collect all opens and exports first so that each module is only redefined once
+            final var redefinitions = new ModuleRedefinitions();
+            args.values(LaunchArguments.ADD_OPENS).stream()
                     .map(arg -> arg.split("="))
                     .forEach(toOpen -> {
-                        var fromModule = bootLayer.findModule(toOpen[0].split("/")[0]).orElseThrow();
+                        var fromModule = findSourceModule(bootLayer, toOpen[0].split("/")[0], pruneModules);
+                        if (fromModule == null) return;
                         var pn = toOpen[0].split("/")[1];
                         for (var moduleSpec : toOpen[1].split(",")) {
-                            if ("ALL-UNNAMED".equals(moduleSpec)) {
-                                try {
-                                    addOpensToAllUnnamed.invokeExact(fromModule, pn);
-                                } catch (Throwable e) {
-                                    throw new RuntimeException(e);
-                                }
-                            } else {
-                                bootLayer.findModule(moduleSpec).ifPresent(to -> open(fromModule, pn, to));
+                            var to = "ALL-UNNAMED".equals(moduleSpec) ? null : bootLayer.findModule(moduleSpec).orElse(null);
+                            if (to != null) {
+                                redefinitions.open(fromModule, pn, to);
+                            } else if ("ALL-UNNAMED".equals(moduleSpec) || pruneModules) {
+                                // Modules left out by pruning have their classes loaded from the unnamed module instead
+                                redefinitions.openToAllUnnamed(fromModule, pn);
                             }
                         }
                     });
-            findValues(args, "--add-exports").stream()
+            args.values(LaunchArguments.ADD_EXPORTS).stream()
                     .map(arg -> arg.split("="))
                     .forEach(toExport -> {
-                        var fromModule = bootLayer.findModule(toExport[0].split("/")[0]).orElseThrow();
+                        var fromModule = findSourceModule(bootLayer, toExport[0].split("/")[0], pruneModules);
+                        if (fromModule == null) return;
                         var pn = toExport[0].split("/")[1];
                         for (var moduleSpec : toExport[1].split(",")) {
-                            if ("ALL-UNNAMED".equals(moduleSpec)) {
-                                try {
-                                    addExportsToAllUnnamed.invokeExact(fromModule, pn);
-                                } catch (Throwable e) {
-                                    throw new RuntimeException(e);
-                                }
-                            } else {
-                                bootLayer.findModule(moduleSpec).ifPresent(to -> export(fromModule, pn, to));
+                            var to = "ALL-UNNAMED".equals(moduleSpec) ? null : bootLayer.findModule(moduleSpec).orElse(null);
+                            if (to != null) {
+                                redefinitions.export(fromModule, pn, to);
+                            } else if ("ALL-UNNAMED".equals(moduleSpec) || pruneModules) {
+                                // Modules left out by pruning have their classes loaded from the unnamed module instead
+                                redefinitions.exportToAllUnnamed(fromModule, pn);
                             }
                         }
                     });
+            redefinitions.apply(Agent.instrumentation);
+            redefinitions.applyToAllUnnamed(
+                    (module, pkg) -> { addExportsToAllUnnamed.invokeExact(module, pkg); },
+                    (module, pkg) -> { addOpensToAllUnnamed.invokeExact(module, pkg); }
+            );
 
-            final var classPathArg = findValue(args, "-cp", "--class-path", "-classpath");
+            final var classPathArg = args.value(LaunchArguments.CLASS_PATH);
             if (classPathArg != null) {
+                StartupTimings.begin("classPath");
                 String[] classPathItems = classPathArg.split(Pattern.quote(File.pathSeparator));
                 var classPathItemPaths = Arrays.stream(classPathItems).map(Paths::get).toList();
                 addToClassPath(classPathItemPaths);
             }
         }
 
+        if (classPreload != null) {
+            StartupTimings.begin("classPreload");
+            ClassPreload.start(classPreload, CACHE_DIR.resolve("preload.bin"), script, appLoader);
+        }
+
         // Clear installed providers so the JiJ provider can be found
+        StartupTimings.begin("providerReset");
         {
-            @SuppressWarnings("unchecked")
-            final List<FileSystemProvider> newProviders = (List<FileSystemProvider>) loadInstalledProviders.invokeExact();
+            // The indexed class loader reads the class path itself, out of sight of the system class loader the index is loaded with
+            final var serviceIndex = useCache && appLoader == ClassLoader.getSystemClassLoader()
+                    ? ServiceIndex.load(CACHE_DIR.resolve("services.bin"), ModuleLayer.boot(), System.getProperty("java.class.path")) : null;
+            List<FileSystemProvider> newProviders = null;
+            if (serviceIndex != null) {
+                newProviders = loadInstalledProviders(serviceIndex);
+            }
+            if (newProviders == null) {
+                @SuppressWarnings("unchecked")
+                final var installedProviders = (List<FileSystemProvider>) loadInstalledProviders.invokeExact();
+                newProviders = installedProviders;
+            }
             // Insert default provider at the start of the list
             newProviders.add(0, FileSystems.getDefault().provider());
+            // The caching provider must come before the zip provider to open the nested jars first
+            final var zipProvider = jijCache ? CachingJarInJarProvider.zipProvider(newProviders) : null;
+            if (zipProvider != null) {
+                final var jijProvider = new CachingJarInJarProvider(CACHE_DIR.resolve("jij"), zipProvider);
+                newProviders.add(1, jijProvider);
+                Runtime.getRuntime().addShutdownHook(new Thread(jijProvider::evictUnused, "serverstarter-jij-evict"));
+            }
+            // The system class loader can't see the providers of the indexed class path
+            if (appLoader != ClassLoader.getSystemClassLoader()) {
+                for (FileSystemProvider provider : ServiceLoader.load(FileSystemProvider.class, appLoader)) {
+                    if (provider.getClass().getClassLoader() == appLoader) {
+                        newProviders.add(provider);
+                    }
+                }
+            }
             // Update the installed providers
             SET_installedProviders.invokeExact(newProviders);
         }
 
         // Parse the system properties
-        var sysProps = args.stream().filter(arg -> arg.startsWith("-D")).toList();
-        sysProps.forEach(args::remove);
-        sysProps.stream()
-                .map(arg -> arg.substring("-D".length()).split("=", 2))
-                .forEach(arg -> System.setProperty(arg[0], arg[1]));
+        StartupTimings.begin("systemProperties");
+        args.systemProperties().forEach(System::setProperty);
 
+        StartupTimings.begin("mainClassLoad");
         final String mainName;
 
         // If we're starting a jar, the main class is specified in the manifest
@@ -273,74 +446,68 @@ public class Main {
             }
         }
 
-        // Otherwise it's the next argument
+        // Otherwise it's the first argument after the options
         else {
-            mainName = args.remove(0);
+            mainName = args.mainClass();
+            if (mainName == null) {
+                System.err.println("Failed to find the main class in the arguments of the run script");
+                System.exit(1);
+                return;
+            }
         }
 
         final Method main;
         try {
-            main = Class.forName(mainName).getDeclaredMethod("main", String[].class);
+            main = Class.forName(mainName, true, appLoader).getDeclaredMethod("main", String[].class);
         } catch (Exception e) {
             throw new Exception("Failed to find main class \"" + mainName + "\"", e);
         }
 
+        StartupTimings.begin("handoff");
         // Pass any args specified to the start jar to MC
-        args.addAll(startArgs);
+        final var programArgs = new ArrayList<>(args.programArgs());
+        programArgs.addAll(startArgs);
 
         // If the main class isn't exported, export it so that we can access it
         if (!main.getDeclaringClass().getModule().isExported(main.getDeclaringClass().getPackageName())) {
             export(main.getDeclaringClass().getModule(), main.getDeclaringClass().getPackageName(), Main.class.getModule());
         }
 
+        final var mainArgs = programArgs.toArray(String[]::new);
+        StartupTimings.report(timingsFile);
+
         try {
-            main.invoke(null, new Object[] { args.toArray(String[]::new) });
+            main.invoke(null, new Object[] { mainArgs });
         } catch (InvocationTargetException exception) {
             // The reflection will cause all exceptions to be wrapped in an InvocationTargetException
             throw exception.getCause();
         }
     }
 
-    private static void loadJavaAgents(List<String> args) {
-        for (var it = args.iterator(); it.hasNext(); ) {
-            var item = it.next();
-
-            if (item.startsWith("-javaagent:")) {
-                it.remove();
-                var agentParts = item.substring("-javaagent:".length()).split("=", 2);
-                String agentArgs = "";
-                if (agentParts.length == 2) {
-                    agentArgs = agentParts[1];
-                }
-                var agentPath = agentParts[0];
+    private static void loadJavaAgents(List<String> specs) throws Throwable {
+        if (specs.isEmpty()) return;
 
-                // We fake this by appending it to the boot CP using our existing agent and invoking the main method directly
-                String premainClassName;
-                try {
-                    JarFile agentJar = new JarFile(agentPath);
-                    premainClassName = agentJar.getManifest().getMainAttributes().getValue("Premain-Class");
-                    if (premainClassName == null) {
-                        System.err.println("Java agent: " + agentPath + " has no Premain-Class attribute.");
-                        System.exit(1);
-                        return;
-                    }
-
-                    Agent.instrumentation.appendToSystemClassLoaderSearch(agentJar);
-                } catch (IOException e) {
-                    System.err.println("Failed to open Java agent: " + agentPath);
-                    e.printStackTrace();
-                    System.exit(1);
-                    return;
-                }
+        // The jars are validated in parallel, but the premains must run in the order the agents were declared in
+        var agents = JavaAgents.resolve(specs);
+        if (agents == null) {
+            System.exit(1);
+            return;
+        }
 
-                invokeAgentPremain(premainClassName, agentArgs, agentPath);
-            }
+        final var systemCl = ClassLoader.getSystemClassLoader();
+        for (JavaAgents.JavaAgent agent : agents) {
+            final long start = System.nanoTime();
+            // We fake this by appending it to the boot CP using our existing agent and invoking the main method directly
+            // This is what Instrumentation#appendToSystemClassLoaderSearch does, without keeping a JarFile open
+            appendClassPath.invoke(systemCl, agent.jar().toString());
+            invokeAgentPremain(agent.premainClass(), agent.options(), agent.jar().toString(), systemCl);
+            StartupTimings.record("agent " + agent.jar().getFileName(), agent.resolveNanos() + System.nanoTime() - start);
         }
     }
 
-    private static void invokeAgentPremain(String premainClassName, String agentArgs, String agentPath) {
+    private static void invokeAgentPremain(String premainClassName, String agentArgs, String agentPath, ClassLoader loader) {
         try {
-            var premainClass = Class.forName(premainClassName, true, ClassLoader.getSystemClassLoader());
+            var premainClass = Class.forName(premainClassName, true, loader);
             try {
                 premainClass.getMethod("premain", String.class, Instrumentation.class)
                         .invoke(null, agentArgs, Agent.instrumentation);
@@ -355,7 +522,38 @@ public class Main {
         }
     }
 
-    private static void addToClassPath(List<Path> cp) throws Throwable {
+    /**
+     * Load the installed file system providers like {@code FileSystemProvider.loadInstalledProviders} does, but from the
+     * providers recorded in the service index, without searching the class path for them.
+     *
+     * @return the providers, or {@code null} if a provider of the index failed to load
+     */
+    @Nullable
+    private static List<FileSystemProvider> loadInstalledProviders(ServiceIndex index) {
+        final List<FileSystemProvider> providers;
+        try {
+            providers = index.load(FileSystemProvider.class, ModuleLayer.boot(), ClassLoader.getSystemClassLoader());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            System.err.println("Failed to load the file system providers from the service index: " + e);
+            return null;
+        }
+
+        // The default provider is skipped, and only the first provider of each scheme is kept
+        var installed = new ArrayList<FileSystemProvider>();
+        for (FileSystemProvider provider : providers) {
+            var scheme = provider.getScheme();
+            if (scheme.equalsIgnoreCase("file")) continue;
+            boolean found = false;
+            for (FileSystemProvider other : installed) {
+                found |= other.getScheme().equalsIgnoreCase(scheme);
+            }
+            if (!found) installed.add(provider);
+        }
+        return installed;
+    }
+
+    @VisibleForTesting
+    static void addToClassPath(List<Path> cp) throws Throwable {
         // Append the new class-path items to the java.class.path system property too
         var cpProperty = new StringBuilder(System.getProperty("java.class.path"));
 
@@ -369,6 +567,36 @@ public class Main {
         System.setProperty("java.class.path", cpProperty.toString());
     }
 
+    /**
+     * Create a loader for the jars of the class path which looks classes up in the {@link ClassPathIndex}.
+     * Directories on the class path can't be indexed, and appending them to the parent loader would make them win over
+     * the jars before them, so the class path is appended to the system class loader as usual if it has any.
+     */
+    private static ClassLoader createIndexedLoader(List<Path> cp) throws Throwable {
+        // Like the system class loader, also load the jars referenced by the Class-Path of the jars
+        var jars = JarManifests.expandClassPath(cp);
+        for (Path path : jars) {
+            if (Files.isDirectory(path)) {
+                System.err.println("Not indexing the class path, as it contains the directory " + path);
+                addToClassPath(cp);
+                return ClassLoader.getSystemClassLoader();
+            }
+        }
+
+        var cpProperty = new StringBuilder(System.getProperty("java.class.path"));
+        for (Path path : cp) {
+            if (Files.isRegularFile(path)) {
+                cpProperty.append(File.pathSeparatorChar).append(path.toAbsolutePath());
+            }
+        }
+        System.setProperty("java.class.path", cpProperty.toString());
+
+        var index = ClassPathIndex.load(CACHE_DIR.resolve("classpath.bin"));
+        var loader = new IndexedClassLoader(jars, index, ClassLoader.getSystemClassLoader());
+        index.save();
+        return loader;
+    }
+
     private static void export(Module module, String pkg, Module to) {
         Agent.instrumentation.redefineModule(
                 module,
@@ -380,33 +608,66 @@ public class Main {
         );
     }
 
-    private static void open(Module module, String pkg, Module to) {
-        Agent.instrumentation.redefineModule(
-                module,
-                Set.of(),
-                Map.of(),
-                Map.of(pkg, Set.of(to)),
-                Set.of(),
-                Map.of()
-        );
+    /**
+     * {@return the module of the layer whose packages are opened or exported, or {@code null} if it was left out by pruning}
+     * Modules left out by pruning are in the unnamed module, whose packages are all open already.
+     */
+    @Nullable
+    private static Module findSourceModule(ModuleLayer layer, String name, boolean pruned) {
+        var module = layer.findModule(name);
+        if (pruned && module.isEmpty()) return null;
+        return module.orElseThrow();
     }
 
     @Nullable
-    private static Path resolveInstaller(@Nullable URL installerUrl) throws Throwable {
+    private static Path resolveInstaller(@Nullable URL installerUrl, @Nullable ArtifactCache artifactCache) throws Throwable {
         Path installer = null;
 
         if (installerUrl != null) {
             var onSlash = installerUrl.getPath().split("/");
             installer = Path.of(onSlash[onSlash.length - 1]);
 
-            // If the installer exists, it was already downloaded
+            // If the installer exists, it was already downloaded, but it may have been left truncated or corrupted,
+            // unless it was verified and hasn't changed since
             if (Files.exists(installer)) {
-                return installer;
+                if (Downloader.isVerified(installerUrl, installer)) {
+                    return installer;
+                }
+                try {
+                    var checksum = artifactCache == null ? null : artifactCache.checksumOf(installerUrl);
+                    if (checksum == null) checksum = Downloader.fetchChecksum(installerUrl);
+                    if (checksum == null || checksum.matches(installer)) {
+                        Downloader.markVerified(installerUrl, installer);
+                        return installer;
+                    }
+                    System.err.println("Installer " + installer.toAbsolutePath() + " does not match its checksum, downloading it again");
+                } catch (IOException e) {
+                    // We can't reach the server, so trust the installer we have
+                    System.err.println("Failed to verify installer " + installer.toAbsolutePath() + ": " + e);
+                    return installer;
+                }
+            }
+
+            if (artifactCache != null) {
+                var checksum = artifactCache.checksumOf(installerUrl);
+                if (checksum != null && artifactCache.copyTo(checksum, installer)) {
+                    // The artifact cache verified it before copying it
+                    Downloader.markVerified(installerUrl, installer);
+                    System.err.println("Using installer " + installerUrl + " from the artifact cache");
+                    return installer;
+                }
             }
 
             System.err.println("Downloading installer from " + installerUrl + " to " + installer.toAbsolutePath());
-            try (var stream = installerUrl.openStream()) {
-                Files.copy(stream, installer);
+            var checksum = Downloader.download(installerUrl, installer);
+
+            if (artifactCache != null) {
+                if (checksum == null) {
+                    checksum = new Downloader.Checksum("SHA-256", Downloader.hash(installer, "SHA-256"));
+                }
+                artifactCache.store(checksum, installer);
+                artifactCache.rememberUrl(installerUrl, checksum);
+                artifactCache.evict();
             }
         } else {
             try (final var stream = Files.find(Path.of("."), 1, (path, basicFileAttributes) -> path.getFileName().toString().endsWith("installer.jar"))) {
@@ -419,8 +680,8 @@ public class Main {
         return installer;
     }
 
-    private static boolean runInstaller(@Nullable URL installerUrl) throws Throwable {
-        final var installer = resolveInstaller(installerUrl);
+    private static boolean runInstaller(@Nullable URL installerUrl, @Nullable ArtifactCache artifactCache, boolean parallel) throws Throwable {
+        final var installer = resolveInstaller(installerUrl, artifactCache);
 
         if (installer != null) {
             System.err.println("Found installer " + installer.toAbsolutePath());
@@ -431,49 +692,162 @@ public class Main {
                 return false;
             }
 
-            var classLoader = new URLClassLoader(new URL[]{ installer.toUri().toURL() });
+            final var librariesDir = Path.of("libraries");
+            InstallProfile profile = null;
+            try {
+                profile = InstallProfile.read(installer);
+            } catch (IOException e) {
+                System.err.println("Failed to read install profile of " + installer + ": " + e);
+            }
+            if (artifactCache != null && profile != null) {
+                System.err.println("Provided " + artifactCache.provide(profile.libraries(), librariesDir) + " of " + profile.libraries().size() + " libraries from the artifact cache");
+            }
 
-            var mainClass = classLoader.loadClass(mainName);
-            System.err.println("Running installer...");
+            // File systems may only store modification times with a precision of a couple of seconds
+            final long installStart = System.currentTimeMillis() - 2000;
 
-            var mainMethod = mainClass.getDeclaredMethod("main", String[].class);
-            SecurityAccess.wrapNoForceExit(() -> {
-                try {
-                    mainMethod.invoke(null, (Object) new String[] { "--installServer" });
-                } catch (InvocationTargetException invc) {
-                    // Make sure to ignore the security exception when force exits are attempted
-                    if (invc.getCause() instanceof SecurityException) return;
-                    throw invc;
+            // The args file of the version being installed, rather than the run script, which may be left by a previous version
+            final var argsFile = parallel ? getInstallerArgsFile(installer) : null;
+            if (parallel && profile != null && argsFile != null && ParallelInstaller.install(installer, profile, librariesDir, artifactCache)
+                    && Files.exists(argsFile)) {
+                System.err.println("Installed the server from the install profile");
+            } else {
+                if (parallel) {
+                    System.err.println("Falling back to the installer");
                 }
-            });
+                var classLoader = new URLClassLoader(new URL[]{ installer.toUri().toURL() });
+
+                var mainClass = classLoader.loadClass(mainName);
+                System.err.println("Running installer...");
+
+                var mainMethod = mainClass.getDeclaredMethod("main", String[].class);
+                SecurityAccess.wrapNoForceExit(() -> {
+                    try {
+                        mainMethod.invoke(null, (Object) new String[] { "--installServer" });
+                    } catch (InvocationTargetException invc) {
+                        // Make sure to ignore the security exception when force exits are attempted
+                        if (invc.getCause() instanceof SecurityException) return;
+                        throw invc;
+                    }
+                });
 
-            System.err.println("Installer finished");
-            classLoader.close();
+                System.err.println("Installer finished");
+                classLoader.close();
+            }
+
+            final var runPath = Path.of(OS.runFile);
+            if (Files.exists(runPath)) {
+                InstallManifest.record(librariesDir, profile, runPath, installStart, installerUrl).save(InstallManifest.FILE);
+            }
+
+            if (artifactCache != null && profile != null) {
+                System.err.println("Added " + artifactCache.collect(profile.libraries(), librariesDir) + " libraries to the artifact cache");
+                artifactCache.evict();
+            }
             return true;
         }
 
         return false;
     }
 
+    /**
+     * Check the installed libraries against the install manifest, and repair the ones that are missing or corrupt.
+     * If there is no manifest, one is only created from the install profile of the installer when a deep verification is requested.
+     *
+     * @return whether the install is usable
+     */
+    private static boolean verifyInstall(@Nullable URL installerUrl, @Nullable ArtifactCache artifactCache, boolean deep, boolean parallelInstall) throws Throwable {
+        final var librariesDir = Path.of("libraries");
+        final var runPath = Path.of(OS.runFile);
+        var manifest = InstallManifest.load(InstallManifest.FILE);
+        if (manifest != null && !manifest.isFor(runPath)) {
+            // The server was installed again since, possibly with another version
+            System.err.println("Discarding the install manifest of a previous install");
+            Files.deleteIfExists(InstallManifest.FILE);
+            manifest = null;
+        }
+        if (manifest == null) {
+            if (!deep) return true;
+
+            var installer = resolveInstaller(installerUrl, artifactCache);
+            var profile = installer == null || !installsInstalledVersion(installer, runPath) ? null : InstallProfile.read(installer);
+            if (profile == null) {
+                System.err.println("Cannot verify the install: there is no install manifest and no installer of the installed version to create one from");
+                return true;
+            }
+            manifest = InstallManifest.fromProfile(profile, runPath, installerUrl);
+            manifest.save(InstallManifest.FILE);
+        }
+
+        var broken = manifest.verify(librariesDir, deep);
+        if (broken.isEmpty()) return true;
+
+        System.err.println(broken.size() + " installed files are missing or corrupt: " + broken.stream().map(InstallManifest.Entry::path).collect(Collectors.joining(", ")));
+        if (manifest.repair(broken, librariesDir, artifactCache)) {
+            System.err.println("Repaired the install");
+            return true;
+        }
+
+        System.err.println("Some of the files are produced by the installer, running it again to restore them");
+        final var rerunUrl = manifest.installerUrl() == null ? installerUrl : manifest.installerUrl();
+        // Running the installer of another version would silently up- or downgrade the server
+        final var installer = resolveInstaller(rerunUrl, artifactCache);
+        if (installer == null || !installsInstalledVersion(installer, runPath)) {
+            System.err.println("Cannot restore the install: there is no installer of the installed version");
+            return false;
+        }
+        return runInstaller(rerunUrl, artifactCache, parallelInstall);
+    }
+
+    /**
+     * {@return whether the given installer installs the version the run script launches}
+     */
+    private static boolean installsInstalledVersion(Path installer, Path runPath) throws IOException {
+        final var script = parseScript(runPath);
+        final var installedVersion = script == null ? null : getInstalledVersion(script);
+        final var installerVersion = getInstallerVersion(installer);
+        if (installedVersion != null && installedVersion.equals(installerVersion)) return true;
+        System.err.println("Installer " + installer.toAbsolutePath() + " is of version " + installerVersion + ", but version " + installedVersion + " is installed");
+        return false;
+    }
+
+    /**
+     * {@return the version the run script launches, which is the folder its args file is in}
+     */
+    @Nullable
+    private static String getInstalledVersion(RunScript script) {
+        var argsFilePath = script.argFiles.stream()
+                .filter(arg -> OS.argsFile.equals(arg.getFileName().toString()) && arg.getParent() != null)
+                .findFirst().orElse(null);
+        return argsFilePath == null ? null : argsFilePath.getParent().getFileName().toString();
+    }
+
     @Nullable
     private static String getInstallerVersion(Path installer) throws IOException {
+        var argsFile = getInstallerArgsFile(installer);
+        // The version is the folder in which the arg file is contained
+        return argsFile == null || argsFile.getParent() == null ? null : argsFile.getParent().getFileName().toString();
+    }
+
+    /**
+     * {@return the arg file the run script of the given installer launches the server with}
+     */
+    @Nullable
+    private static Path getInstallerArgsFile(Path installer) throws IOException {
         try (var jar = new JarFile(installer.toFile())) {
-            var script = new String(jar.getInputStream(jar.getEntry("data/" + OS.runFile)).readAllBytes());
+            var entry = jar.getEntry("data/" + OS.runFile);
+            if (entry == null) return null;
+            var script = new String(jar.getInputStream(entry).readAllBytes());
             var byLine = script.split("(\r\n)|\n");
             for (var line : byLine) {
                 if (line.isBlank() || OS.comment.test(line)) continue;
                 var args = Utils.toArgs(line);
                 if (OS.relevantCommand.test(args)) {
                     // Find the arg file
-                    var version = args.stream().filter(str -> str.startsWith("@") && str.endsWith("/" + OS.argsFile))
-                            .map(str -> {
-                                // The version is the folder in which the arg file is contained
-                                var split = str.split("/");
-                                return split[split.length - 2];
-                            })
+                    var argsFile = args.stream().filter(str -> str.startsWith("@") && str.endsWith("/" + OS.argsFile))
                             .findFirst().orElse(null);
-                    if (version != null) {
-                        return version;
+                    if (argsFile != null) {
+                        return Path.of(argsFile.substring(1));
                     }
                 }
             }
@@ -483,66 +857,78 @@ public class Main {
 
     @Nullable
     private static String getMain(File file) throws IOException {
-        try (var jar = new JarFile(file)) {
-            var manifest = jar.getManifest();
-            return manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
-        }
+        var manifest = JarManifests.read(file.toPath());
+        return manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
     }
 
     private static JarAttributes readJarAttributes(File file) throws IOException {
         var paths = new ArrayList<Path>();
-        String premainClass;
-        try (var jar = new JarFile(file)) {
-            var manifest = jar.getManifest();
-            var value = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
-            if (value != null) {
-                StringTokenizer st = new StringTokenizer(value);
-                while (st.hasMoreTokens()) {
-                    paths.add(Path.of(st.nextToken()));
-                }
+        var manifest = JarManifests.read(file.toPath());
+        if (manifest == null) {
+            return new JarAttributes(paths, null);
+        }
+
+        var value = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+        if (value != null) {
+            StringTokenizer st = new StringTokenizer(value);
+            while (st.hasMoreTokens()) {
+                paths.add(Path.of(st.nextToken()));
             }
-            premainClass = manifest.getMainAttributes().getValue("Launcher-Agent-Class");
         }
-        return new JarAttributes(paths, premainClass);
+        return new JarAttributes(paths, manifest.getMainAttributes().getValue("Launcher-Agent-Class"));
     }
 
     record JarAttributes(List<Path> classpath, String premainClass) {}
 
-    private static List<String> findValues(List<String> args, String argument) {
-        var lst = new ArrayList<String>();
-        String val;
-        while ((val = findValue(args, argument)) != null) lst.add(val);
-        return lst;
-    }
-
-    @Nullable
-    private static String findValue(List<String> args, String... argumentNames) {
-        for (String argument : argumentNames) {
-            int idx = args.indexOf(argument);
-            if (idx >= 0) {
-                args.remove(idx);
-                return args.remove(idx);
+    @VisibleForTesting
+    static ModuleLayer.Controller installModulePath(Path[] path, @Nullable ModuleIndex index, @Nullable Path snapshot, @Nullable Path image,
+                                                    @Nullable ModulePruning pruning) throws Throwable {
+        final var systemCl = ClassLoader.getSystemClassLoader();
+        ModuleFinder finder = ParallelModuleFinder.of(index, path);
+        if (index != null) {
+            index.save();
+        }
+        if (image != null) {
+            var imageFinder = ModuleImage.finder(image, finder.findAll());
+            if (imageFinder != null) {
+                finder = imageFinder;
             }
         }
-        return null;
-    }
-
-    private static ModuleLayer.Controller installModulePath(Path[] path) throws Throwable {
-        final var systemCl = ClassLoader.getSystemClassLoader();
-        final var finder = ModuleFinder.of(path);
         final var allModules = finder.findAll();
-        for (ModuleReference module : allModules) {
-            loadModule.invoke(systemCl, module);
-        }
-        return ModuleLayer.defineModules(
-                ModuleLayer.boot().configuration().resolve(
+        final var roots = pruning == null ? null : pruning.roots(allModules);
+
+        final var parent = ModuleLayer.boot().configuration();
+        final long fingerprint = snapshot == null ? 0 : ConfigurationSnapshot.fingerprint(allModules, roots, parent);
+        var configuration = snapshot == null ? null : ConfigurationSnapshot.load(snapshot, fingerprint, finder, parent);
+        if (configuration == null) {
+            if (roots == null) {
+                configuration = parent.resolve(
                         finder, ModuleFinder.of(), allModules
                                 .stream().map(mr -> mr.descriptor().name())
                                 .collect(Collectors.toSet())
-                ),
+                );
+            } else {
+                // Binding adds the modules providing the services used by the resolved modules
+                configuration = parent.resolveAndBind(finder, ModuleFinder.of(), roots);
+            }
+            if (snapshot != null) {
+                ConfigurationSnapshot.save(snapshot, fingerprint, configuration);
+            }
+        }
+
+        // Only the resolved modules are known to the loader, so that the packages of the others are looked up on the class path
+        for (ResolvedModule module : configuration.modules()) {
+            loadModule.invoke(systemCl, module.reference());
+        }
+        final var controller = ModuleLayer.defineModules(
+                configuration,
                 List.of(ModuleLayer.boot()),
                 s -> ClassLoader.getSystemClassLoader()
         );
+        if (roots != null) {
+            addToClassPath(ModulePruning.report(allModules, configuration));
+        }
+        return controller;
     }
 
     private static Path[] getModulePath(String path) {
@@ -552,43 +938,56 @@ public class Main {
     }
 
     @Nullable
-    private static Main.RunScript parseScript(Path runPath) throws IOException {
+    @VisibleForTesting
+    static Main.RunScript parseScript(Path runPath) throws IOException {
         var command = getCommand(runPath);
-        if (command == null) return null;
+        return command == null ? null : expandCommand(command);
+    }
 
+    /**
+     * {@return the launch described by the given java invocation of the run script, with its argument files expanded}
+     */
+    private static Main.RunScript expandCommand(List<String> command) throws IOException {
         var argFiles = new ArrayList<Path>();
-        var startupArgs = new ArrayList<>(command);
-        // Remove the java invocation
-        startupArgs.remove(0);
-
-        // Remove the special arguments used to pass the script args to the java invocation
-        startupArgs.remove(OS.passthroughArg);
+        var startupArgs = new ArrayList<String>(command.size());
+        var jvmOptions = new ArrayList<String>();
+        // Remove any -X or agent arguments since we can't set them as the JVM is already initialised
+        // We keep track of them however, as they can be honoured when launching a child JVM
+        final Consumer<String> addArg = arg -> (isJvmOption(arg) ? jvmOptions : startupArgs).add(arg);
+
+        boolean passthroughRemoved = false;
+        // Skip the java invocation
+        for (int i = 1; i < command.size(); i++) {
+            var part = command.get(i);
+            // Remove the special arguments used to pass the script args to the java invocation
+            if (!passthroughRemoved && part.equals(OS.passthroughArg)) {
+                passthroughRemoved = true;
+                continue;
+            }
 
-        for (String part : command) {
             if (part.startsWith("@")) {
-                var idx = startupArgs.indexOf(part);
-                // Remove the file reference from the args
-                startupArgs.remove(idx);
-
+                // Add the contents of the file instead of the file reference
                 var argFile = Path.of(part.substring(1));
                 argFiles.add(argFile.toAbsolutePath());
-
-                // And add its contents instead
-                var itr = Files.readAllLines(argFile)
-                        .stream().filter(str -> !str.startsWith("#")) // Ignore comments
-                        .flatMap(arg -> Utils.toArgs(arg).stream()).iterator();
-                while (itr.hasNext()) {
-                    startupArgs.add(idx++, itr.next());
-                }
+                Utils.readArgsFile(argFile, addArg);
+            } else {
+                addArg.accept(part);
             }
         }
 
-        // Remove any -X or agent arguments since we can't set them as the JVM is already initialised
-        startupArgs.removeIf(arg -> arg.startsWith("-X") || arg.startsWith("-agentlib:"));
-        return new RunScript(startupArgs, argFiles);
+        return new RunScript(startupArgs, jvmOptions, argFiles);
+    }
+
+    private static boolean isJvmOption(String arg) {
+        return arg.startsWith("-X") || arg.startsWith("-agentlib:");
     }
 
-    private record RunScript(List<String> arguments, List<Path> argFiles) {}
+    /**
+     * @param arguments  the arguments of the java invocation, with the argument files expanded
+     * @param jvmOptions the arguments that configure the JVM itself, and as such cannot be applied to the current JVM
+     * @param argFiles   the argument files that were expanded
+     */
+    record RunScript(List<String> arguments, List<String> jvmOptions, List<Path> argFiles) {}
 
     @Nullable
     private static List<String> getCommand(Path path) {
@@ -0,0 +1,285 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * A single file holding the uncompressed contents of every jar of the module path, which the modules are read from instead
+ * of their jars.
+ * <p>
+ * The image starts with an index of the entries of each module, followed by the contents of the entries, stored one after
+ * another. It is mapped in memory as a whole, so that classes are defined directly from slices of the mapping, without
+ * opening a jar, inflating entries or issuing reads. Multi-release jars are packed as seen by the current runtime.
+ * <p>
+ * The image is packed again whenever the {@linkplain #fingerprint fingerprint} of the module path changes. The modules
+ * keep the location of their jar, which is also where their resources are found, so that nothing outside of class loading
+ * can tell the image apart from the jars.
+ */
+final class ModuleImage {
+    private static final CacheFile FORMAT = new CacheFile(0x53534D50 /* SSMP */, 1, "module image");
+
+    private ModuleImage() {}
+
+    /**
+     * {@return a finder of the given modules whose packaged modules are read from the image, packing it first if needed,
+     * or {@code null} if the image cannot be used}
+     */
+    @Nullable
+    static ModuleFinder finder(Path file, Set<ModuleReference> modules) {
+        var jars = new LinkedHashMap<String, Path>();
+        for (ModuleReference module : modules) {
+            var location = module.location().orElse(null);
+            if (location != null && "file".equals(location.getScheme()) && Files.isRegularFile(Path.of(location))) {
+                jars.put(module.descriptor().name(), Path.of(location));
+            }
+        }
+
+        try {
+            final long fingerprint = fingerprint(jars);
+            var entries = load(file, fingerprint);
+            if (entries == null) {
+                final long start = System.nanoTime();
+                pack(file, fingerprint, jars);
+                entries = load(file, fingerprint);
+                if (entries == null) return null;
+                System.err.printf("Packed %d modules into %s in %.3f ms%n", jars.size(), file, (System.nanoTime() - start) / 1_000_000.0);
+            }
+
+            var references = new LinkedHashMap<String, ModuleReference>();
+            for (ModuleReference module : modules) {
+                var name = module.descriptor().name();
+                var moduleEntries = entries.modules().get(name);
+                references.put(name, moduleEntries == null ? module
+                        : new ImageModuleReference(module, entries.data(), moduleEntries));
+            }
+            var all = Collections.unmodifiableSet(new LinkedHashSet<>(references.values()));
+            return new ModuleFinder() {
+                @Override
+                public Optional<ModuleReference> find(String name) {
+                    return Optional.ofNullable(references.get(name));
+                }
+
+                @Override
+                public Set<ModuleReference> findAll() {
+                    return all;
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to use module image " + file + ", reading the modules from their jars: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * {@return a fingerprint of the runtime and of the jars}
+     */
+    private static long fingerprint(Map<String, Path> jars) throws IOException {
+        var fingerprint = Fingerprint.ofRuntime();
+        for (var jar : jars.entrySet()) {
+            fingerprint.add(jar.getKey()).addFile(jar.getValue());
+        }
+        return fingerprint.value();
+    }
+
+    private static void pack(Path file, long fingerprint, Map<String, Path> jars) throws IOException {
+        var opened = new ArrayList<JarFile>(jars.size());
+        try {
+            // The index is written before the contents, so the size of every entry has to be known upfront
+            var index = new ByteArrayOutputStream();
+            var indexOut = new DataOutputStream(index);
+            var entries = new ArrayList<List<JarEntry>>(jars.size());
+            long offset = 0;
+            indexOut.writeInt(jars.size());
+            for (var jar : jars.entrySet()) {
+                var jarFile = new JarFile(jar.getValue().toFile(), false, ZipFile.OPEN_READ, JarFile.runtimeVersion());
+                opened.add(jarFile);
+                var jarEntries = new ArrayList<JarEntry>();
+                jarFile.versionedStream().forEach(jarEntries::add);
+                entries.add(jarEntries);
+
+                Utils.writeString(indexOut, jar.getKey());
+                indexOut.writeInt(jarEntries.size());
+                for (JarEntry entry : jarEntries) {
+                    Utils.writeString(indexOut, entry.getName());
+                    indexOut.writeLong(offset);
+                    indexOut.writeInt((int) entry.getSize());
+                    offset += entry.getSize();
+                }
+            }
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("The module path is too large to be packed (" + offset + " bytes)");
+            }
+
+            FORMAT.write(file, fingerprint, out -> {
+                out.writeInt(index.size());
+                index.writeTo(out);
+                for (int i = 0; i < opened.size(); i++) {
+                    for (JarEntry entry : entries.get(i)) {
+                        try (var in = opened.get(i).getInputStream(entry)) {
+                            if (in.transferTo(out) != entry.getSize()) {
+                                throw new IOException("Size mismatch of " + entry.getName() + " in " + opened.get(i).getName());
+                            }
+                        }
+                    }
+                }
+            });
+        } finally {
+            for (JarFile jarFile : opened) {
+                jarFile.close();
+            }
+        }
+    }
+
+    @Nullable
+    private static Entries load(Path file, long fingerprint) throws IOException {
+        if (Files.notExists(file)) return null;
+        try (var channel = FileChannel.open(file)) {
+            if (channel.size() > Integer.MAX_VALUE) return null;
+            // A stale image is packed again, which can't replace the file while it is mapped on some platforms, so the
+            // header is read before mapping anything
+            var header = ByteBuffer.allocate(CacheFile.HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) return null;
+            }
+            header.flip();
+            if (!FORMAT.matches(header, fingerprint)) return null;
+
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.position(CacheFile.HEADER_SIZE);
+            var index = new byte[mapped.getInt()];
+            mapped.get(index);
+            final int dataStart = mapped.position();
+            var in = new DataInputStream(new ByteArrayInputStream(index));
+            final int moduleCount = in.readInt();
+            var modules = new HashMap<String, Map<String, Long>>(moduleCount);
+            for (int i = 0; i < moduleCount; i++) {
+                var name = Utils.readString(in);
+                final int entryCount = in.readInt();
+                var entries = new HashMap<String, Long>(entryCount);
+                for (int j = 0; j < entryCount; j++) {
+                    var entry = Utils.readString(in);
+                    final long offset = in.readLong();
+                    final int length = in.readInt();
+                    if (dataStart + offset + length > mapped.capacity()) {
+                        throw new IOException("Entry " + entry + " of " + name + " is out of bounds");
+                    }
+                    entries.put(entry, (dataStart + offset) << 32 | length);
+                }
+                modules.put(name, entries);
+            }
+            return new Entries(mapped, modules);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Discarding unreadable " + FORMAT.description() + " " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @param modules the position and length of each entry, packed into a long, keyed on their name, keyed on the name of their module
+     */
+    private record Entries(ByteBuffer data, Map<String, Map<String, Long>> modules) {}
+
+    private static final class ImageModuleReference extends ModuleReference {
+        private final ByteBuffer data;
+        private final Map<String, Long> entries;
+
+        private ImageModuleReference(ModuleReference module, ByteBuffer data, Map<String, Long> entries) {
+            super(module.descriptor(), module.location().orElseThrow());
+            this.data = data;
+            this.entries = entries;
+        }
+
+        @Override
+        public ModuleReader open() {
+            return new Reader(location().orElseThrow().toString(), data, entries);
+        }
+    }
+
+    private static final class Reader implements ModuleReader {
+        private final String uri;
+        private final ByteBuffer data;
+        private final Map<String, Long> entries;
+        private volatile boolean closed;
+
+        private Reader(String uri, ByteBuffer data, Map<String, Long> entries) {
+            this.uri = uri;
+            this.data = data;
+            this.entries = entries;
+        }
+
+        @Nullable
+        private Long getEntry(String name) throws IOException {
+            if (closed) throw new IOException("ModuleReader is closed");
+            return entries.get(name);
+        }
+
+        @Override
+        public Optional<URI> find(String name) throws IOException {
+            if (getEntry(name) == null) return Optional.empty();
+            try {
+                // Resources are still found in the jar, the image only holds their contents
+                var encoded = new URI(null, null, name, null).getRawPath();
+                return Optional.of(new URI("jar:" + uri + "!/" + encoded));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public Optional<InputStream> open(String name) throws IOException {
+            return read(name).map(buffer -> {
+                var bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                return new ByteArrayInputStream(bytes);
+            });
+        }
+
+        @Override
+        public Optional<ByteBuffer> read(String name) throws IOException {
+            var entry = getEntry(name);
+            if (entry == null) return Optional.empty();
+            // Slicing at an absolute index doesn't touch the position of the shared mapping
+            return Optional.of(data.slice((int) (entry >>> 32), entry.intValue()));
+        }
+
+        @Override
+        public Stream<String> list() throws IOException {
+            if (closed) throw new IOException("ModuleReader is closed");
+            return entries.keySet().stream();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
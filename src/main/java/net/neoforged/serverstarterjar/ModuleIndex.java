@@ -0,0 +1,191 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An on-disk index of the descriptors of the jars on the module path, used to rebuild their {@link ModuleReference references}
+ * without opening the jars.
+ * <p>
+ * Entries are keyed on the path, size and modification time of each jar. Explicit modules are stored as the raw bytes
+ * of their {@code module-info.class} alongside their packages, so that they are parsed exactly like the JDK would parse them,
+ * while automatic modules are stored as the name, version, packages, services and main class the JDK derived for them.
+ */
+final class ModuleIndex {
+    private static final CacheFile FORMAT = new CacheFile(0x53534D49 /* SSMI */, 1, "module index");
+
+    private static final byte EXPLICIT = 0;
+    private static final byte AUTOMATIC = 1;
+
+    private final Path file;
+    private final Map<Path, Entry> entries;
+    private final Map<Path, Entry> used = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private ModuleIndex(Path file, Map<Path, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    static ModuleIndex load(Path file) {
+        var entries = FORMAT.read(file, in -> {
+            final int count = in.readInt();
+            var read = new ConcurrentHashMap<Path, Entry>(count);
+            for (int i = 0; i < count; i++) {
+                var entry = Entry.read(in);
+                read.put(entry.stamp().path(), entry);
+            }
+            return read;
+        });
+        return new ModuleIndex(file, entries == null ? new ConcurrentHashMap<>() : entries);
+    }
+
+    /**
+     * {@return the module in the given jar, if the jar is indexed and didn't change since}
+     */
+    @Nullable
+    ModuleReference find(Path jar) {
+        var absolute = jar.toAbsolutePath();
+        var entry = entries.get(absolute);
+        if (entry == null || !entry.stamp().isValid()) return null;
+
+        try {
+            var reference = new JarModuleReference(entry.descriptor(), absolute);
+            used.put(absolute, entry);
+            return reference;
+        } catch (RuntimeException e) {
+            // The index holds an invalid descriptor, so let the JDK scan the jar again
+            return null;
+        }
+    }
+
+    /**
+     * Record the module the JDK found in the given jar.
+     */
+    void record(Path jar, ModuleReference reference) {
+        var absolute = jar.toAbsolutePath();
+        try {
+            var stamp = FileStamp.of(absolute, false);
+            var descriptor = reference.descriptor();
+            var packages = new ArrayList<>(descriptor.packages());
+
+            final Entry entry;
+            if (descriptor.isAutomatic()) {
+                entry = new Entry(stamp, AUTOMATIC, null, descriptor.name(), descriptor.rawVersion().orElse(null), packages,
+                        descriptor.provides().stream().map(p -> new Provider(p.service(), p.providers())).toList(), descriptor.mainClass().orElse(null));
+            } else {
+                byte[] moduleInfo;
+                try (var reader = reference.open()) {
+                    var buffer = reader.read("module-info.class").orElse(null);
+                    if (buffer == null) return;
+                    moduleInfo = new byte[buffer.remaining()];
+                    buffer.get(moduleInfo);
+                    reader.release(buffer);
+                }
+                entry = new Entry(stamp, EXPLICIT, moduleInfo, descriptor.name(), null, packages, List.of(), null);
+            }
+
+            used.put(absolute, entry);
+            dirty = true;
+        } catch (IOException e) {
+            System.err.println("Failed to index module " + reference.descriptor().name() + " from " + jar + ": " + e);
+        }
+    }
+
+    /**
+     * Write the index back to disk if any jar had to be scanned again. Only the jars used by this launch are kept.
+     */
+    void save() {
+        if (!dirty && used.size() == entries.size()) return;
+
+        FORMAT.save(file, out -> {
+            out.writeInt(used.size());
+            for (Entry entry : used.values()) {
+                entry.write(out);
+            }
+        });
+    }
+
+    private record Provider(String service, List<String> providers) {}
+
+    private record Entry(FileStamp stamp, byte kind, byte @Nullable [] moduleInfo, String name, @Nullable String version,
+                         List<String> packages, List<Provider> provides, @Nullable String mainClass) {
+        ModuleDescriptor descriptor() {
+            final Set<String> packageSet = new HashSet<>(packages);
+            if (kind == EXPLICIT) {
+                return ModuleDescriptor.read(ByteBuffer.wrap(moduleInfo), () -> packageSet);
+            }
+
+            var builder = ModuleDescriptor.newAutomaticModule(name).packages(packageSet);
+            if (version != null) builder.version(version);
+            for (Provider provider : provides) {
+                builder.provides(provider.service(), provider.providers());
+            }
+            if (mainClass != null) builder.mainClass(mainClass);
+            return builder.build();
+        }
+
+        void write(DataOutput out) throws IOException {
+            stamp.write(out);
+            out.writeByte(kind);
+            Utils.writeString(out, name);
+            Utils.writeStrings(out, packages);
+            if (kind == EXPLICIT) {
+                out.writeInt(moduleInfo.length);
+                out.write(moduleInfo);
+            } else {
+                writeNullable(out, version);
+                writeNullable(out, mainClass);
+                out.writeInt(provides.size());
+                for (Provider provider : provides) {
+                    Utils.writeString(out, provider.service());
+                    Utils.writeStrings(out, provider.providers());
+                }
+            }
+        }
+
+        static Entry read(DataInput in) throws IOException {
+            var stamp = FileStamp.read(in);
+            var kind = in.readByte();
+            var name = Utils.readString(in);
+            var packages = Utils.readStrings(in);
+            if (kind == EXPLICIT) {
+                var moduleInfo = new byte[in.readInt()];
+                in.readFully(moduleInfo);
+                return new Entry(stamp, kind, moduleInfo, name, null, packages, List.of(), null);
+            }
+
+            var version = readNullable(in);
+            var mainClass = readNullable(in);
+            final int providerCount = in.readInt();
+            var provides = new ArrayList<Provider>(providerCount);
+            for (int i = 0; i < providerCount; i++) {
+                provides.add(new Provider(Utils.readString(in), Utils.readStrings(in)));
+            }
+            return new Entry(stamp, kind, null, name, version, packages, provides, mainClass);
+        }
+    }
+
+    private static void writeNullable(DataOutput out, @Nullable String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) Utils.writeString(out, string);
+    }
+
+    @Nullable
+    private static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? Utils.readString(in) : null;
+    }
+}
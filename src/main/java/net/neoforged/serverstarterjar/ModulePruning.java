@@ -0,0 +1,97 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleReference;
+import java.lang.module.ResolvedModule;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the boot layer from the modules the server is known to need, instead of from every module of the module path.
+ * <p>
+ * The run scripts resolve {@code ALL-MODULE-PATH}, which defines a module for every jar of the module path, whether the
+ * server uses it or not. When pruning, the roots of the resolution are the module holding the main class and the modules
+ * added with {@code --add-modules}, and the configuration is resolved and bound from them, so that it holds every module
+ * they require, and every module providing a service they use, transitively.
+ * <p>
+ * The modules left out of the configuration are not defined as modules. Their jars are appended to the class path instead,
+ * so that their classes are still loaded, from the unnamed module, if anything ends up looking for them.
+ *
+ * @param mainClass  the main class of the server
+ * @param addModules the modules added with {@code --add-modules}
+ */
+record ModulePruning(@Nullable String mainClass, List<String> addModules) {
+    static ModulePruning of(LaunchArguments args) {
+        var addModules = new ArrayList<String>();
+        for (String value : args.values(LaunchArguments.ADD_MODULES)) {
+            for (String module : value.split(",")) {
+                // ALL-MODULE-PATH is what we're pruning, and the system modules are in the boot layer already
+                if (!module.isBlank() && !module.startsWith("ALL-")) {
+                    addModules.add(module.trim());
+                }
+            }
+        }
+        return new ModulePruning(args.mainClass(), addModules);
+    }
+
+    /**
+     * {@return the names of the modules the configuration is resolved from, or {@code null} if there is nothing to prune from}
+     */
+    @Nullable
+    Set<String> roots(Set<ModuleReference> modules) {
+        final var mainPackage = mainClass == null || mainClass.lastIndexOf('.') < 0 ? null
+                : mainClass.substring(0, mainClass.lastIndexOf('.'));
+        var roots = new LinkedHashSet<String>();
+        for (ModuleReference module : modules) {
+            var descriptor = module.descriptor();
+            if ((mainPackage != null && descriptor.packages().contains(mainPackage)) || addModules.contains(descriptor.name())) {
+                roots.add(descriptor.name());
+            }
+        }
+        if (roots.isEmpty()) {
+            System.err.println("Cannot prune the module path: the main class " + mainClass + " is not in a module of the module path");
+            return null;
+        }
+        return roots;
+    }
+
+    /**
+     * Print how many modules the configuration holds and how many were left out.
+     *
+     * @return the jars of the modules left out of the configuration
+     */
+    static List<Path> report(Set<ModuleReference> modules, Configuration configuration) {
+        // Looking the modules up in the configuration would look the missing ones up in the boot layer too
+        var resolved = new HashSet<String>();
+        for (ResolvedModule module : configuration.modules()) {
+            resolved.add(module.name());
+        }
+        var skipped = new ArrayList<Path>();
+        long skippedBytes = 0;
+        for (ModuleReference module : modules) {
+            if (resolved.contains(module.descriptor().name())) continue;
+            var location = module.location().orElse(null);
+            if (location == null || !"file".equals(location.getScheme())) continue;
+
+            var path = Path.of(location);
+            skipped.add(path);
+            try {
+                skippedBytes += Files.isRegularFile(path) ? Files.size(path) : 0;
+            } catch (IOException ignored) {
+            }
+        }
+        // Neither formatted nor concatenated, which would respectively load the formatter and spin method handles this early
+        System.err.println(new StringBuilder("Pruned the module path: resolved ").append(configuration.modules().size())
+                .append(" of ").append(modules.size()).append(" modules, leaving ").append(skipped.size())
+                .append(" modules (").append((skippedBytes + 1023) / 1024).append(" KiB of jars) to the class path"));
+        return skipped;
+    }
+}
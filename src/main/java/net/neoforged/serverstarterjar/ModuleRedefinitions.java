@@ -0,0 +1,86 @@
+package net.neoforged.serverstarterjar;
+
+import java.lang.instrument.Instrumentation;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the packages that should be exported or opened, so that they can be applied with a single
+ * {@link Instrumentation#redefineModule module redefinition} per source module instead of one per package and target.
+ * <p>
+ * Redefinitions that are already in effect are skipped, and those targeting {@code ALL-UNNAMED}, which cannot be
+ * expressed through instrumentation, are deduplicated and applied per source module.
+ */
+final class ModuleRedefinitions {
+    private final Map<Module, Map<String, Set<Module>>> exports = new LinkedHashMap<>();
+    private final Map<Module, Map<String, Set<Module>>> opens = new LinkedHashMap<>();
+    private final Map<Module, Set<String>> exportsToAllUnnamed = new LinkedHashMap<>();
+    private final Map<Module, Set<String>> opensToAllUnnamed = new LinkedHashMap<>();
+
+    void export(Module module, String pkg, Module to) {
+        if (module.isExported(pkg, to)) return;
+        exports.computeIfAbsent(module, m -> new LinkedHashMap<>()).computeIfAbsent(pkg, p -> new HashSet<>()).add(to);
+    }
+
+    void open(Module module, String pkg, Module to) {
+        if (module.isOpen(pkg, to)) return;
+        opens.computeIfAbsent(module, m -> new LinkedHashMap<>()).computeIfAbsent(pkg, p -> new HashSet<>()).add(to);
+    }
+
+    void exportToAllUnnamed(Module module, String pkg) {
+        exportsToAllUnnamed.computeIfAbsent(module, m -> new LinkedHashSet<>()).add(pkg);
+    }
+
+    void openToAllUnnamed(Module module, String pkg) {
+        opensToAllUnnamed.computeIfAbsent(module, m -> new LinkedHashSet<>()).add(pkg);
+    }
+
+    /**
+     * Apply the collected redefinitions between named modules.
+     *
+     * @return the number of module redefinitions performed
+     */
+    int apply(Instrumentation instrumentation) {
+        var modules = new LinkedHashSet<Module>(exports.keySet());
+        modules.addAll(opens.keySet());
+        for (Module module : modules) {
+            instrumentation.redefineModule(
+                    module,
+                    Set.of(),
+                    exports.getOrDefault(module, Map.of()),
+                    opens.getOrDefault(module, Map.of()),
+                    Set.of(),
+                    Map.of()
+            );
+        }
+        exports.clear();
+        opens.clear();
+        return modules.size();
+    }
+
+    /**
+     * Apply the collected redefinitions targeting all unnamed modules.
+     */
+    void applyToAllUnnamed(AllUnnamedHandle addExportsToAllUnnamed, AllUnnamedHandle addOpensToAllUnnamed) throws Throwable {
+        for (var entry : exportsToAllUnnamed.entrySet()) {
+            for (String pkg : entry.getValue()) {
+                addExportsToAllUnnamed.apply(entry.getKey(), pkg);
+            }
+        }
+        for (var entry : opensToAllUnnamed.entrySet()) {
+            for (String pkg : entry.getValue()) {
+                addOpensToAllUnnamed.apply(entry.getKey(), pkg);
+            }
+        }
+        exportsToAllUnnamed.clear();
+        opensToAllUnnamed.clear();
+    }
+
+    @FunctionalInterface
+    interface AllUnnamedHandle {
+        void apply(Module module, String pkg) throws Throwable;
+    }
+}
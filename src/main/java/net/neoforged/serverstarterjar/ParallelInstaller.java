@@ -0,0 +1,534 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Installs the server from the installer's {@code install_profile.json} without running the installer, so that the
+ * libraries are downloaded and the processors are run concurrently rather than one after another.
+ * <p>
+ * The processors are ordered by the files they share: a processor waits for every earlier processor which produces a file
+ * it references, or which references a file it produces. The files a processor produces are its declared outputs and the
+ * arguments following its {@code --out...} options; processors for which neither exists run on their own, after every
+ * earlier processor and before every later one. Each processor also waits for the libraries it runs with and references,
+ * and runs in its own JVM as soon as they are available. Processors whose declared outputs are all present and match
+ * their SHA-1 are skipped, like the installer does.
+ * <p>
+ * Once the processors ran, the files launching the server are extracted from the {@code data} folder of the installer:
+ * the arguments files the run scripts reference, the user JVM arguments if the user has none yet, and the run scripts
+ * themselves, last, as they are what marks the server as installed.
+ * <p>
+ * The install is done in the same way as the installer for the server side, which remains the fallback should anything fail.
+ */
+final class ParallelInstaller {
+    private static final String VERSION_MANIFEST = "https://piston-meta.mojang.com/mc/game/version_manifest_v2.json";
+    private static final String DEFAULT_SERVER_JAR_PATH = "{ROOT}/minecraft_server.{MINECRAFT_VERSION}.jar";
+    private static final List<String> RUN_SCRIPTS = List.of("run.sh", "run.bat");
+    private static final String USER_JVM_ARGS = "user_jvm_args.txt";
+
+    private final Path installer;
+    private final InstallProfile profile;
+    private final Path librariesDir;
+    @Nullable
+    private final ArtifactCache artifactCache;
+    private final JarFile installerJar;
+
+    @VisibleForTesting
+    ParallelInstaller(Path installer, InstallProfile profile, Path librariesDir, @Nullable ArtifactCache artifactCache, JarFile installerJar) {
+        this.installer = installer.toAbsolutePath();
+        this.profile = profile;
+        this.librariesDir = librariesDir.toAbsolutePath();
+        this.artifactCache = artifactCache;
+        this.installerJar = installerJar;
+    }
+
+    /**
+     * Install the server described by the given profile of the installer.
+     *
+     * @return whether the install succeeded, otherwise the installer should be run
+     */
+    static boolean install(Path installer, InstallProfile profile, Path librariesDir, @Nullable ArtifactCache artifactCache) {
+        if (profile.minecraft() == null) {
+            System.err.println("The install profile does not specify a Minecraft version, running the installer instead");
+            return false;
+        }
+
+        Path temp = null;
+        try (var installerJar = new JarFile(installer.toFile())) {
+            temp = Files.createTempDirectory("serverstarter-installer");
+            return new ParallelInstaller(installer, profile, librariesDir, artifactCache, installerJar).install(temp);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to install the server: " + e);
+            return false;
+        } finally {
+            if (temp != null) deleteRecursively(temp);
+        }
+    }
+
+    private boolean install(Path temp) throws IOException {
+        final long start = System.nanoTime();
+        final var root = Path.of("").toAbsolutePath();
+        final var serverJar = root.resolve(replaceTokens(Map.of(
+                "ROOT", root.toString(),
+                "MINECRAFT_VERSION", profile.minecraft(),
+                "LIBRARY_DIR", librariesDir.toString()
+        ), profile.serverJarPath() == null ? DEFAULT_SERVER_JAR_PATH : profile.serverJarPath()));
+
+        var data = new HashMap<String, String>();
+        data.put("SIDE", "server");
+        data.put("MINECRAFT_JAR", serverJar.toString());
+        data.put("MINECRAFT_VERSION", profile.minecraft());
+        data.put("ROOT", root.toString());
+        data.put("INSTALLER", installer.toString());
+        data.put("LIBRARY_DIR", librariesDir.toString());
+        for (var entry : profile.data().entrySet()) {
+            data.put(entry.getKey(), resolveData(entry.getValue(), temp));
+        }
+
+        // The work is bound by the network rather than by the processors
+        final ExecutorService downloads = Utils.daemonPool("serverstarter-install-download-", Utils.MAX_PARALLELISM);
+        final ExecutorService processors = Utils.daemonPool("serverstarter-install-processor-", Utils.parallelism(Utils.MAX_PARALLELISM, true));
+        try {
+            final var files = new HashMap<String, CompletableFuture<Boolean>>();
+            for (InstallProfile.Library library : profile.libraries()) {
+                files.put(library.resolve(librariesDir).toString(), CompletableFuture.supplyAsync(() -> provide(library), downloads));
+            }
+            files.put(serverJar.toString(), CompletableFuture.supplyAsync(() -> downloadMinecraft(profile.minecraft(), serverJar), downloads));
+
+            final var steps = new ArrayList<Step>(profile.processors().size());
+            final var results = new ArrayList<CompletableFuture<Boolean>>(profile.processors().size());
+            final var skipped = new AtomicInteger();
+            for (InstallProfile.Processor processor : profile.processors()) {
+                var step = Step.of(steps.size() + 1, processor, data, librariesDir);
+                var dependencies = new ArrayList<CompletableFuture<Boolean>>();
+                dependencies.add(file(files, step.jar()));
+                for (Path library : step.classpath()) {
+                    dependencies.add(file(files, library));
+                }
+                for (String argument : step.referenced()) {
+                    var future = files.get(argument);
+                    if (future != null) dependencies.add(future);
+                }
+                for (int i = 0; i < steps.size(); i++) {
+                    if (step.dependsOn(steps.get(i))) dependencies.add(results.get(i));
+                }
+
+                results.add(CompletableFuture.allOf(dependencies.toArray(CompletableFuture[]::new))
+                        .thenApplyAsync(ignored -> {
+                            if (!dependencies.stream().allMatch(CompletableFuture::join)) return false;
+                            if (step.isUpToDate()) {
+                                skipped.incrementAndGet();
+                                return true;
+                            }
+                            return step.run(profile.processors().size());
+                        }, processors));
+                steps.add(step);
+            }
+
+            boolean installed = true;
+            for (CompletableFuture<Boolean> file : files.values()) {
+                installed &= file.join();
+            }
+            for (CompletableFuture<Boolean> result : results) {
+                installed &= result.join();
+            }
+            installed = installed && extractLaunchFiles(root);
+            if (installed) {
+                System.err.printf("Installed %d libraries and ran %d of %d processors (the others were up to date) in %.3f s%n", profile.libraries().size(),
+                        steps.size() - skipped.get(), steps.size(), (System.nanoTime() - start) / 1_000_000_000.0);
+            }
+            return installed;
+        } finally {
+            downloads.shutdownNow();
+            processors.shutdownNow();
+        }
+    }
+
+    /**
+     * Extract the files launching the server from the installer, like the installer does.
+     *
+     * @return whether the run scripts and the arguments files they reference were extracted
+     */
+    @VisibleForTesting
+    boolean extractLaunchFiles(Path root) throws IOException {
+        var scripts = new ArrayList<JarEntry>();
+        for (String script : RUN_SCRIPTS) {
+            var entry = installerJar.getJarEntry("data/" + script);
+            if (entry != null) scripts.add(entry);
+        }
+        if (scripts.isEmpty()) {
+            System.err.println("The installer has no run script");
+            return false;
+        }
+
+        for (JarEntry script : scripts) {
+            for (String argsFile : argsFiles(new String(readEntry(script), StandardCharsets.UTF_8))) {
+                // The installer ships the arguments files flat, and the scripts reference them in the folder of the version
+                var entry = installerJar.getJarEntry("data/" + argsFile.substring(argsFile.lastIndexOf('/') + 1));
+                if (entry == null) {
+                    System.err.println("The installer has no file " + argsFile + " referenced by its " + script.getName().substring("data/".length()));
+                    return false;
+                }
+                extract(entry, root.resolve(argsFile));
+            }
+        }
+
+        // The user JVM arguments are the user's to edit, so they are never replaced
+        var userJvmArgs = installerJar.getJarEntry("data/" + USER_JVM_ARGS);
+        if (userJvmArgs != null && Files.notExists(root.resolve(USER_JVM_ARGS))) {
+            extract(userJvmArgs, root.resolve(USER_JVM_ARGS));
+        }
+
+        for (JarEntry script : scripts) {
+            var target = root.resolve(script.getName().substring("data/".length()));
+            extract(script, target);
+            target.toFile().setExecutable(true);
+        }
+        return true;
+    }
+
+    /**
+     * {@return the arguments files referenced by the given run script, relative to the folder of the server}
+     */
+    @VisibleForTesting
+    static List<String> argsFiles(String script) {
+        var argsFiles = new ArrayList<String>();
+        for (String line : script.split("\\R")) {
+            for (String argument : Utils.toArgs(line)) {
+                // The user JVM arguments are next to the scripts, and not part of the install
+                if (argument.startsWith("@") && argument.endsWith("_args.txt") && argument.indexOf('/') >= 0) {
+                    argsFiles.add(argument.substring(1));
+                }
+            }
+        }
+        return argsFiles;
+    }
+
+    private byte[] readEntry(JarEntry entry) throws IOException {
+        try (InputStream in = installerJar.getInputStream(entry)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private void extract(JarEntry entry, Path target) throws IOException {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        try (InputStream in = installerJar.getInputStream(entry)) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static CompletableFuture<Boolean> file(Map<String, CompletableFuture<Boolean>> files, Path path) {
+        var future = files.get(path.toString());
+        return future != null ? future : CompletableFuture.completedFuture(Files.isRegularFile(path));
+    }
+
+    /**
+     * Make the given library available, from the installer itself if it has no URL, otherwise from the artifact cache or its URL.
+     */
+    private boolean provide(InstallProfile.Library library) {
+        var file = library.resolve(librariesDir);
+        try {
+            if (Files.isRegularFile(file) && (library.sha1() == null || Downloader.hash(file, "SHA-1").equalsIgnoreCase(library.sha1()))) {
+                return true;
+            }
+
+            if (library.url() == null) {
+                var entry = installerJar.getJarEntry("maven/" + library.path());
+                if (entry == null) {
+                    System.err.println("Library " + library.path() + " has no URL and is not bundled in the installer");
+                    return false;
+                }
+                try (InputStream in = installerJar.getInputStream(entry)) {
+                    Files.createDirectories(file.getParent());
+                    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return true;
+            }
+
+            if (library.sha1() != null) {
+                return InstallManifest.repair(new InstallManifest.Entry(library.path(), library.size(), library.sha1(), library.url()), librariesDir, artifactCache);
+            }
+            System.err.println("Downloading " + library.path() + " from " + library.url());
+            Files.createDirectories(file.getParent());
+            Downloader.download(URI.create(library.url()).toURL(), file);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to download " + library.path() + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Download the vanilla server jar of the given version, as listed by the Mojang version manifest.
+     */
+    private boolean downloadMinecraft(String version, Path target) {
+        if (Files.isRegularFile(target)) return true;
+        try {
+            String versionUrl = null;
+            for (Object element : Json.array(readJson(URI.create(VERSION_MANIFEST).toURL()), "versions")) {
+                if (element instanceof Map<?, ?> entry && version.equals(entry.get("id")) && entry.get("url") instanceof String url) {
+                    versionUrl = url;
+                }
+            }
+            if (versionUrl == null) {
+                System.err.println("Minecraft version " + version + " is not listed in the version manifest");
+                return false;
+            }
+
+            var server = Json.object(Json.object(readJson(URI.create(versionUrl).toURL()), "downloads"), "server");
+            var url = Json.string(server, "url");
+            var sha1 = Json.string(server, "sha1");
+            if (url == null || sha1 == null) {
+                System.err.println("Minecraft version " + version + " has no server jar");
+                return false;
+            }
+            final long size = server.get("size") instanceof Number number ? number.longValue() : -1;
+            return InstallManifest.repair(new InstallManifest.Entry(target.getFileName().toString(), size, sha1, url), target.getParent(), artifactCache);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to download the Minecraft " + version + " server: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Resolve the value of a data entry: maven coordinates between brackets are resolved to the artifact in the libraries
+     * folder, literals between single quotes are used as is, and anything else is a file extracted from the installer.
+     */
+    @VisibleForTesting
+    String resolveData(String value, Path temp) throws IOException {
+        if (value.startsWith("[") && value.endsWith("]")) {
+            return librariesDir.resolve(InstallProfile.artifactPath(value.substring(1, value.length() - 1))).toString();
+        }
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            return value.substring(1, value.length() - 1);
+        }
+
+        var name = value.startsWith("/") ? value.substring(1) : value;
+        var entry = installerJar.getJarEntry(name);
+        if (entry == null) {
+            throw new IOException("The installer has no file " + value);
+        }
+        var target = temp.resolve(name);
+        Files.createDirectories(target.getParent());
+        try (InputStream in = installerJar.getInputStream(entry)) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target.toString();
+    }
+
+    /**
+     * Replace the {@code {KEY}} placeholders of the given value with their data, like the installer does.
+     * Text between single quotes is kept as is, without the quotes, and backslashes escape the next character.
+     */
+    @VisibleForTesting
+    static String replaceTokens(Map<String, String> data, String value) {
+        var result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            if (ch == '\\') {
+                if (++i == value.length()) throw new IllegalArgumentException("Illegal pattern (bad escape): " + value);
+                result.append(value.charAt(i));
+            } else if (ch == '{' || ch == '\'') {
+                final char close = ch == '{' ? '}' : '\'';
+                var key = new StringBuilder();
+                while (true) {
+                    if (++i == value.length()) throw new IllegalArgumentException("Illegal pattern (unclosed " + ch + "): " + value);
+                    final char next = value.charAt(i);
+                    if (next == '\\') {
+                        if (++i == value.length()) throw new IllegalArgumentException("Illegal pattern (bad escape): " + value);
+                        key.append(value.charAt(i));
+                    } else if (next == close) {
+                        break;
+                    } else {
+                        key.append(next);
+                    }
+                }
+                if (ch == '\'') {
+                    result.append(key);
+                } else {
+                    var replacement = data.get(key.toString());
+                    if (replacement == null) throw new IllegalArgumentException("Missing data for placeholder " + key + ": " + value);
+                    result.append(replacement);
+                }
+            } else {
+                result.append(ch);
+            }
+        }
+        return result.toString();
+    }
+
+    private static Map<String, Object> readJson(URL url) throws IOException {
+        try (var in = url.openStream()) {
+            if (Json.parse(new String(in.readAllBytes(), StandardCharsets.UTF_8)) instanceof Map<?, ?> map) {
+                @SuppressWarnings("unchecked") var object = (Map<String, Object>) map;
+                return object;
+            }
+            throw new IOException("Expected an object at " + url);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (var stream = Files.walk(dir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException ignored) {
+            // It's only a temporary directory
+        }
+    }
+
+    /**
+     * A processor with its placeholders resolved.
+     *
+     * @param referenced every argument and output of the processor, some of which are files
+     * @param produced   the files the processor produces
+     * @param outputs    the expected SHA-1 of the declared outputs
+     */
+    @VisibleForTesting
+    record Step(int index, String name, Path jar, List<Path> classpath, List<String> args,
+                        Set<String> referenced, Set<String> produced, Map<Path, String> outputs) {
+        static Step of(int index, InstallProfile.Processor processor, Map<String, String> data, Path librariesDir) {
+            var args = new ArrayList<String>(processor.args().size());
+            for (String argument : processor.args()) {
+                args.add(resolveArgument(argument, data, librariesDir));
+            }
+
+            var outputs = new LinkedHashMap<Path, String>();
+            for (var output : processor.outputs().entrySet()) {
+                outputs.put(Path.of(resolveArgument(output.getKey(), data, librariesDir)), replaceTokens(data, output.getValue()));
+            }
+
+            var produced = new HashSet<String>();
+            for (Path output : outputs.keySet()) {
+                produced.add(output.toString());
+            }
+            for (int i = 0; i + 1 < args.size(); i++) {
+                if (args.get(i).startsWith("--out")) produced.add(args.get(i + 1));
+            }
+            var referenced = new HashSet<>(args);
+            referenced.addAll(produced);
+
+            var classpath = new ArrayList<Path>(processor.classpath().size());
+            for (String library : processor.classpath()) {
+                classpath.add(librariesDir.resolve(InstallProfile.artifactPath(library)));
+            }
+            // The installer tools run many different tasks from the same jar
+            final int task = processor.args().indexOf("--task");
+            var name = task >= 0 && task + 1 < args.size() ? processor.jar() + " " + args.get(task + 1) : processor.jar();
+            return new Step(index, name, librariesDir.resolve(InstallProfile.artifactPath(processor.jar())), classpath, args,
+                    referenced, produced, outputs);
+        }
+
+        private static String resolveArgument(String argument, Map<String, String> data, Path librariesDir) {
+            if (argument.startsWith("[") && argument.endsWith("]")) {
+                return librariesDir.resolve(InstallProfile.artifactPath(argument.substring(1, argument.length() - 1))).toString();
+            }
+            return replaceTokens(data, argument);
+        }
+
+        boolean dependsOn(Step previous) {
+            return produced.isEmpty() || previous.produced.isEmpty()
+                    || overlaps(previous.produced, referenced) || overlaps(previous.referenced, produced);
+        }
+
+        private static boolean overlaps(Set<String> files, Set<String> others) {
+            for (String file : files) {
+                for (String other : others) {
+                    // A folder contains the files below it
+                    if (file.equals(other) || isWithin(file, other) || isWithin(other, file)) return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isWithin(String file, String folder) {
+            return file.startsWith(folder) && (folder.endsWith("/") || folder.endsWith("\\")
+                    || (file.length() > folder.length() && (file.charAt(folder.length()) == '/' || file.charAt(folder.length()) == '\\')));
+        }
+
+        boolean isUpToDate() {
+            if (outputs.isEmpty()) return false;
+            for (var output : outputs.entrySet()) {
+                try {
+                    if (!Files.isRegularFile(output.getKey()) || !Downloader.hash(output.getKey(), "SHA-1").equalsIgnoreCase(output.getValue())) {
+                        return false;
+                    }
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean run(int count) {
+            final long start = System.nanoTime();
+            try {
+                var manifest = JarManifests.read(jar);
+                var mainClass = manifest == null ? null : manifest.getMainAttributes().getValue("Main-Class");
+                if (mainClass == null) {
+                    System.err.println("Processor " + name + " does not specify Main-Class");
+                    return false;
+                }
+
+                var path = new ArrayList<String>(classpath.size() + 1);
+                path.add(jar.toString());
+                for (Path library : classpath) {
+                    path.add(library.toString());
+                }
+                var command = new ArrayList<String>();
+                command.add(ChildJvm.javaExecutable());
+                command.add("-cp");
+                command.add(String.join(File.pathSeparator, path));
+                command.add(mainClass);
+                command.addAll(args);
+
+                // The processors run concurrently, so their output is kept apart and only shown if they fail
+                var log = Main.CACHE_DIR.resolve("installer").resolve("processor-" + index + ".log").toAbsolutePath();
+                Files.createDirectories(log.getParent());
+                System.err.println("Running processor " + index + " of " + count + ": " + name);
+                final int exitCode = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start().waitFor();
+                if (exitCode != 0) {
+                    System.err.println("Processor " + name + " failed with exit code " + exitCode + ":");
+                    System.err.println(Files.readString(log));
+                    return false;
+                }
+
+                for (var output : outputs.entrySet()) {
+                    if (!Files.isRegularFile(output.getKey()) || !Downloader.hash(output.getKey(), "SHA-1").equalsIgnoreCase(output.getValue())) {
+                        System.err.println("Processor " + name + " produced " + output.getKey() + " which does not match the expected SHA-1 " + output.getValue());
+                        return false;
+                    }
+                }
+                System.err.printf("Processor %d of %d finished in %.3f s%n", index, count, (System.nanoTime() - start) / 1_000_000_000.0);
+                return true;
+            } catch (IOException e) {
+                System.err.println("Failed to run processor " + name + ": " + e);
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
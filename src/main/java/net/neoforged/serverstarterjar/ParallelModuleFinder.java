@@ -0,0 +1,115 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link ModuleFinder} that scans all the entries of a module path eagerly, in parallel.
+ * <p>
+ * {@link ModuleFinder#of(Path...)} opens each jar one after another to read its {@code module-info.class} or to derive
+ * an automatic module from its contents. This finder instead scans every entry on its own thread, and then merges the
+ * results in module path order, so that it behaves like {@link ModuleFinder#of(Path...)}: if several entries
+ * contain a module with the same name, the module of the first entry is the one that is found.
+ */
+final class ParallelModuleFinder implements ModuleFinder {
+
+    private final Map<String, ModuleReference> modules;
+    private final Set<ModuleReference> allModules;
+
+    private ParallelModuleFinder(Map<String, ModuleReference> modules) {
+        this.modules = modules;
+        this.allModules = Collections.unmodifiableSet(new LinkedHashSet<>(modules.values()));
+    }
+
+    static ParallelModuleFinder of(Path... entries) {
+        return of(null, entries);
+    }
+
+    /**
+     * Create a finder for the given module path entries, using the index to avoid scanning the jars that didn't change.
+     */
+    static ParallelModuleFinder of(@Nullable ModuleIndex index, Path... entries) {
+        var scanned = scan(index, entries);
+
+        var modules = new LinkedHashMap<String, ModuleReference>();
+        for (Set<ModuleReference> entryModules : scanned) {
+            for (ModuleReference module : entryModules) {
+                modules.putIfAbsent(module.descriptor().name(), module);
+            }
+        }
+        return new ParallelModuleFinder(modules);
+    }
+
+    private static List<Set<ModuleReference>> scan(@Nullable ModuleIndex index, Path[] entries) {
+        var results = new ArrayList<Set<ModuleReference>>(entries.length);
+        final int parallelism = Utils.parallelism(entries.length, true);
+        if (parallelism <= 1) {
+            for (Path entry : entries) {
+                results.add(scan(index, entry));
+            }
+            return results;
+        }
+
+        final ExecutorService executor = Utils.daemonPool("serverstarter-module-scan-", parallelism);
+        try {
+            var futures = new ArrayList<Future<Set<ModuleReference>>>(entries.length);
+            for (Path entry : entries) {
+                futures.add(executor.submit((Callable<Set<ModuleReference>>) () -> scan(index, entry)));
+            }
+            for (Future<Set<ModuleReference>> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            // Rethrow the original exception (usually a FindException) so that callers can inspect it as if it was thrown by ModuleFinder.of
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof Error err) throw err;
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Set<ModuleReference> scan(@Nullable ModuleIndex index, Path entry) {
+        if (index != null) {
+            var indexed = index.find(entry);
+            if (indexed != null) return Set.of(indexed);
+        }
+
+        var found = ModuleFinder.of(entry).findAll();
+        // Only jars are indexed, directories may contain any number of modules
+        if (index != null && found.size() == 1 && Files.isRegularFile(entry)) {
+            index.record(entry, found.iterator().next());
+        }
+        return found;
+    }
+
+    @Override
+    public Optional<ModuleReference> find(String name) {
+        return Optional.ofNullable(modules.get(name));
+    }
+
+    @Override
+    public Set<ModuleReference> findAll() {
+        return allModules;
+    }
+}
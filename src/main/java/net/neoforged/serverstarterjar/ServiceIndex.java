@@ -0,0 +1,226 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * An index of the providers of each service declared by the jars of the class path.
+ * <p>
+ * Looking up the providers of a service with the system class loader makes the loader look for {@code META-INF/services}
+ * files in every module defined to it and in every jar of the class path, opening all of them. The index records which
+ * providers the jars of the class path declare, so that the providers are loaded without looking for them. It is persisted
+ * along with a fingerprint of the modules of the boot layer and of the jars of the class path, and read again as long as
+ * they are unchanged. Like the class loader, the index follows the {@code Class-Path} attribute of the manifest of the jars,
+ * and the jars it references are recorded too.
+ * <p>
+ * The providers in modules are not loaded from the index, as the module layer keeps a catalog of them already.
+ */
+final class ServiceIndex {
+    private static final CacheFile FORMAT = new CacheFile(0x53535356 /* SSSV */, 2, "service index");
+    private static final String SERVICES = "META-INF/services/";
+
+    /**
+     * The providers declared by the jars of the class path, in class path order, keyed on the name of their service.
+     */
+    private final Map<String, List<String>> classPathProviders;
+    /**
+     * The jars referenced by the manifests of the jars of the class path.
+     */
+    private final List<FileStamp> referencedJars;
+
+    private ServiceIndex(Map<String, List<String>> classPathProviders, List<FileStamp> referencedJars) {
+        this.classPathProviders = classPathProviders;
+        this.referencedJars = referencedJars;
+    }
+
+    /**
+     * {@return the index of the boot layer and the class path, read from the given file or built and written to it if it is
+     * out of date, or {@code null} if the class path cannot be indexed}
+     */
+    @Nullable
+    static ServiceIndex load(Path file, ModuleLayer layer, String classPath) {
+        var jars = new ArrayList<Path>();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (entry.isEmpty()) continue;
+            var path = Path.of(entry).toAbsolutePath().normalize();
+            // The services of directories are read from their files directly, which can't be fingerprinted cheaply
+            if (!Files.isRegularFile(path)) return null;
+            jars.add(path);
+        }
+
+        try {
+            final long fingerprint = fingerprint(layer, jars);
+            var index = FORMAT.read(file, fingerprint, ServiceIndex::read);
+            if (index == null) {
+                index = build(jars);
+                final var built = index;
+                FORMAT.save(file, fingerprint, out -> {
+                    out.writeInt(built.referencedJars.size());
+                    for (FileStamp stamp : built.referencedJars) {
+                        stamp.write(out);
+                    }
+                    write(out, built.classPathProviders);
+                });
+            }
+            return index;
+        } catch (IOException e) {
+            System.err.println("Failed to index the service providers of the class path: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * {@return the providers of the given service, in the order a {@link ServiceLoader} of the given loader finds them}
+     * The providers in modules are loaded from the catalog of the layer, and the providers on the class path are
+     * instantiated directly.
+     */
+    <S> List<S> load(Class<S> service, ModuleLayer layer, ClassLoader loader) throws ReflectiveOperationException {
+        var providers = new ArrayList<S>();
+        ServiceLoader.load(layer, service).forEach(providers::add);
+        for (String name : classPathProviders.getOrDefault(service.getName(), List.of())) {
+            final var type = Class.forName(name, false, loader);
+            // Like the service loader, ignore the providers of the class path which turn out to be in a named module
+            if (type.getModule().isNamed()) continue;
+            providers.add(service.cast(type.getConstructor().newInstance()));
+        }
+        return providers;
+    }
+
+    private static ServiceIndex build(List<Path> jars) throws IOException {
+        // The service loader only loads each provider once, so that a provider declared by several jars is found in the first one
+        var classPathProviders = new LinkedHashMap<String, Set<String>>();
+        var visited = new HashSet<Path>();
+        var referencedJars = new ArrayList<FileStamp>();
+        for (Path jar : jars) {
+            index(jar, classPathProviders, visited);
+        }
+        for (Path jar : visited) {
+            if (!jars.contains(jar)) {
+                referencedJars.add(FileStamp.of(jar, false));
+            }
+        }
+
+        var classPath = new LinkedHashMap<String, List<String>>();
+        classPathProviders.forEach((service, providers) -> classPath.put(service, List.copyOf(providers)));
+        return new ServiceIndex(classPath, referencedJars);
+    }
+
+    /**
+     * Index the services of the given jar, followed by the services of the jars its manifest references, which the class
+     * loader searches right after it.
+     */
+    private static void index(Path jar, Map<String, Set<String>> services, Set<Path> visited) throws IOException {
+        // The class loader ignores the references it cannot open
+        if (!Files.isRegularFile(jar) || !visited.add(jar)) return;
+
+        final List<Path> referenced;
+        try (var jarFile = new JarFile(jar.toFile(), false)) {
+            var entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final var name = entry.getName();
+                if (entry.isDirectory() || !name.startsWith(SERVICES) || name.indexOf('/', SERVICES.length()) >= 0) continue;
+
+                var providers = services.computeIfAbsent(name.substring(SERVICES.length()), k -> new LinkedHashSet<>());
+                try (var in = jarFile.getInputStream(entry)) {
+                    parse(in, providers);
+                }
+            }
+
+            referenced = JarManifests.classPath(jar, jarFile.getManifest());
+        }
+        for (Path path : referenced) {
+            index(path, services, visited);
+        }
+    }
+
+    /**
+     * Parse a provider-configuration file: one provider per line, ignoring whitespace and comments starting with {@code #}.
+     */
+    private static void parse(InputStream in, Set<String> providers) throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.strip();
+            if (!line.isEmpty()) providers.add(line);
+        }
+    }
+
+    /**
+     * {@return a fingerprint of the modules of the layer, and of the jars}
+     */
+    private static long fingerprint(ModuleLayer layer, List<Path> jars) throws IOException {
+        var fingerprint = Fingerprint.ofRuntime();
+        // The modules of the parent layers are the modules of the JDK, which are part of the JDK fingerprint
+        for (Module module : modules(layer)) {
+            fingerprint.add(module.getName()).add(module.getDescriptor().hashCode());
+        }
+        for (Path jar : jars) {
+            fingerprint.addFile(jar);
+        }
+        return fingerprint.value();
+    }
+
+    /**
+     * {@return the modules of the layer, sorted by name, as the order of the modules of a layer changes from a run to another}
+     */
+    private static List<Module> modules(ModuleLayer layer) {
+        var modules = new ArrayList<>(layer.modules());
+        modules.sort(Comparator.comparing(Module::getName));
+        return modules;
+    }
+
+    @Nullable
+    private static ServiceIndex read(DataInputStream in) throws IOException {
+        final int referencedCount = in.readInt();
+        var referencedJars = new ArrayList<FileStamp>(referencedCount);
+        for (int i = 0; i < referencedCount; i++) {
+            var stamp = FileStamp.read(in);
+            if (!stamp.isValid()) return null;
+            referencedJars.add(stamp);
+        }
+        return new ServiceIndex(readProviders(in), referencedJars);
+    }
+
+    private static Map<String, List<String>> readProviders(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        var services = new HashMap<String, List<String>>(count);
+        for (int i = 0; i < count; i++) {
+            services.put(Utils.readString(in), Collections.unmodifiableList(Utils.readStrings(in)));
+        }
+        return services;
+    }
+
+    private static void write(DataOutputStream out, Map<String, List<String>> services) throws IOException {
+        out.writeInt(services.size());
+        for (var service : services.entrySet()) {
+            Utils.writeString(out, service.getKey());
+            Utils.writeStrings(out, service.getValue());
+        }
+    }
+}
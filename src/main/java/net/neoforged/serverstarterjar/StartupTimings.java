@@ -0,0 +1,153 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records how long each phase of the starter takes, so that the overhead of the starter can be told apart from the time
+ * Minecraft itself takes to boot.
+ * <p>
+ * Phases are sequential: {@linkplain #begin(String) beginning} a phase ends the current one. Durations are measured with
+ * {@link System#nanoTime()}, and when available the bytes allocated by the main thread and the number of classes loaded
+ * during each phase are recorded too. Recording is disabled by default, in which case every call is a no-op.
+ */
+final class StartupTimings {
+    private static final List<Phase> PHASES = new ArrayList<>();
+
+    private static boolean enabled;
+    private static long startTime;
+    @Nullable
+    private static com.sun.management.ThreadMXBean threadBean;
+    @Nullable
+    private static ClassLoadingMXBean classLoadingBean;
+
+    @Nullable
+    private static String currentPhase;
+    private static long phaseStart, phaseAllocated, phaseClasses;
+
+    private StartupTimings() {}
+
+    static void enable() {
+        enabled = true;
+        startTime = System.nanoTime();
+        // The management beans are only looked up when timings are enabled as they are not free to initialise
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported()) {
+            threadBean = bean;
+        }
+        classLoadingBean = ManagementFactory.getClassLoadingMXBean();
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Ends the current phase, if any, and starts a new one.
+     */
+    static void begin(String phase) {
+        if (!enabled) return;
+        end();
+        currentPhase = phase;
+        phaseAllocated = allocatedBytes();
+        phaseClasses = loadedClasses();
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the current phase, if any.
+     */
+    static void end() {
+        if (!enabled || currentPhase == null) return;
+        final long duration = System.nanoTime() - phaseStart;
+        PHASES.add(new Phase(currentPhase, duration, allocatedBytes() - phaseAllocated, loadedClasses() - phaseClasses));
+        currentPhase = null;
+    }
+
+    /**
+     * Record a phase that was measured separately, such as one that runs on another thread.
+     */
+    static void record(String phase, long nanos) {
+        if (!enabled) return;
+        PHASES.add(new Phase(phase, nanos, -1, -1));
+    }
+
+    /**
+     * Ends the current phase and writes the report, either to the given file (as JSON or CSV depending on its extension) or to stderr.
+     */
+    static void report(@Nullable Path file) {
+        if (!enabled) return;
+        end();
+
+        final long total = System.nanoTime() - startTime;
+        final long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        if (file == null) {
+            var summary = new StringBuilder("Starter timings (total ").append(millis(total)).append(" ms, JVM uptime ").append(uptime).append(" ms):");
+            for (Phase phase : PHASES) {
+                summary.append(String.format(Locale.ROOT, "%n  %-24s %10s ms", phase.name(), millis(phase.nanos())));
+                if (phase.allocatedBytes() >= 0) summary.append(String.format(Locale.ROOT, " %10d KiB", phase.allocatedBytes() / 1024));
+                if (phase.loadedClasses() >= 0) summary.append(String.format(Locale.ROOT, " %6d classes", phase.loadedClasses()));
+            }
+            System.err.println(summary);
+            return;
+        }
+
+        final String contents;
+        if (file.getFileName().toString().endsWith(".csv")) {
+            var csv = new StringBuilder("phase,nanos,allocated_bytes,loaded_classes\n");
+            for (Phase phase : PHASES) {
+                csv.append(phase.name()).append(',').append(phase.nanos()).append(',').append(phase.allocatedBytes()).append(',').append(phase.loadedClasses()).append('\n');
+            }
+            csv.append("total,").append(total).append(",-1,-1\n");
+            contents = csv.toString();
+        } else {
+            var json = new StringBuilder("{\n");
+            var version = StartupTimings.class.getPackage().getImplementationVersion();
+            json.append("  \"starterVersion\": ").append(version == null ? "null" : '"' + version + '"').append(",\n");
+            json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+            json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+            json.append("  \"uptimeMillis\": ").append(uptime).append(",\n");
+            json.append("  \"totalNanos\": ").append(total).append(",\n");
+            json.append("  \"phases\": [");
+            for (int i = 0; i < PHASES.size(); i++) {
+                var phase = PHASES.get(i);
+                json.append(i == 0 ? "\n" : ",\n")
+                        .append("    {\"name\": \"").append(phase.name().replace("\\", "\\\\").replace("\"", "\\\""))
+                        .append("\", \"nanos\": ").append(phase.nanos())
+                        .append(", \"allocatedBytes\": ").append(phase.allocatedBytes())
+                        .append(", \"loadedClasses\": ").append(phase.loadedClasses()).append('}');
+            }
+            json.append("\n  ]\n}\n");
+            contents = json.toString();
+        }
+
+        try {
+            var parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Files.writeString(file, contents);
+        } catch (IOException e) {
+            System.err.println("Failed to write starter timings to " + file + ": " + e);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return threadBean == null ? -1 : threadBean.getCurrentThreadAllocatedBytes();
+    }
+
+    private static long loadedClasses() {
+        return classLoadingBean == null ? -1 : classLoadingBean.getTotalLoadedClassCount();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private record Phase(String name, long nanos, long allocatedBytes, long loadedClasses) {}
+}
@@ -0,0 +1,259 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the server in a child JVM and restarts it when it crashes or stops responding, so that a crashed server comes back
+ * without the host having to restart the starter.
+ * <p>
+ * The child JVM loads the starter as a Java agent which touches a heartbeat file every few seconds, as long as the server
+ * makes progress. A child whose heartbeat stops for longer than {@link #HEARTBEAT_TIMEOUT_MILLIS} is considered hung, and is
+ * stopped and restarted. A child exiting with a non-zero exit code is considered crashed, and so is a child exiting with
+ * {@code 0} after writing a server crash report, as the server exits normally after most crashes. A child exiting normally
+ * otherwise (i.e. through {@code /stop}) stops the supervisor too.
+ * <p>
+ * Restarts are delayed with an exponential backoff, based on the number of crashes during the last
+ * {@link #CRASH_LOOP_WINDOW_MILLIS}. Once the server crashed {@link #MAX_CRASHES} times in that window, it is considered to be
+ * in a crash loop, and the supervisor gives up.
+ * <p>
+ * The time a restart takes is measured from the crash to the moment the new server is ready, i.e. accepts connections on
+ * the port of its {@code server.properties}.
+ */
+final class Supervisor {
+    static final long HEARTBEAT_TIMEOUT_MILLIS = 60_000;
+    static final long CRASH_LOOP_WINDOW_MILLIS = 10 * 60_000;
+    static final int MAX_CRASHES = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+    /**
+     * How often to check whether a restarted server is ready.
+     */
+    private static final long READINESS_POLL_MILLIS = 250;
+    private static final int DEFAULT_PORT = 25565;
+    private static final Path CRASH_REPORTS = Path.of("crash-reports");
+
+    private final Main.RunScript script;
+    private final List<String> programArgs;
+    private final boolean useCds;
+    private final Path heartbeat = Main.CACHE_DIR.resolve("heartbeat").toAbsolutePath();
+
+    private final Deque<Long> crashes = new ArrayDeque<>();
+    private final List<Long> restartLatencies = new ArrayList<>();
+    private int restarts;
+    /**
+     * When the last child crashed, if the new child isn't ready yet, or {@code -1}.
+     */
+    private long crashedAt = -1;
+    private volatile boolean stopping;
+    @Nullable
+    private volatile Process current;
+
+    private Supervisor(Main.RunScript script, List<String> programArgs, boolean useCds) {
+        this.script = script;
+        this.programArgs = programArgs;
+        this.useCds = useCds;
+    }
+
+    /**
+     * Run the server until it stops normally, the starter is stopped, or it is caught in a crash loop.
+     *
+     * @return the exit code of the last child JVM
+     */
+    static int run(Main.RunScript script, List<String> programArgs, boolean useCds) throws IOException, InterruptedException {
+        return new Supervisor(script, programArgs, useCds).run();
+    }
+
+    private int run() throws IOException, InterruptedException {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopping = true;
+            var process = current;
+            if (process != null) ChildJvm.stop(process);
+        }, "serverstarter-supervisor-shutdown"));
+
+        final var agent = starterJar();
+        if (agent == null) {
+            System.err.println("The starter is not running from a jar, the server will only be restarted when it exits");
+        }
+
+        while (true) {
+            var options = new ArrayList<String>();
+            if (agent != null) {
+                Files.deleteIfExists(heartbeat);
+                options.add("-javaagent:" + agent + "=" + Agent.HEARTBEAT + heartbeat);
+            }
+            if (useCds) {
+                options.addAll(CdsArchive.options(script));
+            }
+
+            final long startedAt = System.currentTimeMillis();
+            final var process = ChildJvm.command(script, options, programArgs).start();
+            current = process;
+            if (stopping) ChildJvm.stop(process);
+
+            final boolean hung = waitFor(process, agent != null, startedAt);
+            final int exitCode = process.exitValue();
+            current = null;
+            final var reason = hung ? "stopped responding" : crashReason(exitCode, CRASH_REPORTS, startedAt);
+            if (stopping || reason == null) {
+                printSummary();
+                return exitCode;
+            }
+
+            final long now = System.currentTimeMillis();
+            crashedAt = now;
+            crashes.addLast(now);
+            while (now - crashes.getFirst() > CRASH_LOOP_WINDOW_MILLIS) {
+                crashes.removeFirst();
+            }
+
+            final long uptime = (now - startedAt) / 1000;
+            if (crashes.size() >= MAX_CRASHES) {
+                System.err.println("Server " + reason + " after " + uptime + " s, and crashed " + crashes.size() + " times in the last "
+                        + CRASH_LOOP_WINDOW_MILLIS / 60_000 + " minutes. Not restarting it again");
+                printSummary();
+                return exitCode == 0 ? 1 : exitCode;
+            }
+
+            final long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (crashes.size() - 1));
+            System.err.println("Server " + reason + " after " + uptime + " s (crash " + crashes.size() + " of " + MAX_CRASHES
+                    + " allowed in " + CRASH_LOOP_WINDOW_MILLIS / 60_000 + " minutes), restarting it in " + backoff / 1000.0 + " s");
+            Thread.sleep(backoff);
+            if (stopping) return exitCode;
+            restarts++;
+        }
+    }
+
+    /**
+     * Wait for the process to exit, stopping it if its heartbeat stops.
+     *
+     * @return whether the process was stopped because it stopped responding
+     */
+    private boolean waitFor(Process process, boolean heartbeats, long startedAt) throws InterruptedException {
+        final var address = crashedAt >= 0 ? serverAddress() : null;
+        while (!process.waitFor(crashedAt >= 0 ? READINESS_POLL_MILLIS : Agent.HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (crashedAt >= 0 && isReady(address)) {
+                recordRestart(System.currentTimeMillis());
+            }
+            if (!heartbeats || stopping) continue;
+
+            final long lastHeartbeat = lastHeartbeat();
+            final long silence = System.currentTimeMillis() - Math.max(lastHeartbeat, startedAt);
+            if (silence > HEARTBEAT_TIMEOUT_MILLIS) {
+                System.err.println("Server sent no heartbeat for " + silence / 1000 + " s, stopping it");
+                ChildJvm.stop(process);
+                process.waitFor();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@return why the child exiting with the given exit code crashed, or {@code null} if it stopped normally}
+     * The server writes a crash report and exits with {@code 0} after most crashes, so a child is considered crashed if a
+     * server crash report was written since it started, whatever its exit code.
+     *
+     * @param crashReports the folder the server writes its crash reports to
+     * @param startedAt    when the child started
+     */
+    @VisibleForTesting
+    @Nullable
+    static String crashReason(int exitCode, Path crashReports, long startedAt) {
+        // File systems may round the modification times down to the second
+        final long since = startedAt - startedAt % 1000;
+        try (var reports = Files.newDirectoryStream(crashReports, "crash-*-server.txt")) {
+            for (Path report : reports) {
+                if (Files.getLastModifiedTime(report).toMillis() >= since) {
+                    return "crashed with exit code " + exitCode + " (see " + report + ")";
+                }
+            }
+        } catch (IOException ignored) {
+            // No crash report was written
+        }
+        return exitCode == 0 ? null : "crashed with exit code " + exitCode;
+    }
+
+    /**
+     * Record how long the server took to come back after crashing, which is once the new server is ready.
+     */
+    private void recordRestart(long readyAt) {
+        final long latency = readyAt - crashedAt;
+        crashedAt = -1;
+        restartLatencies.add(latency);
+        System.err.println("Server restarted in " + latency + " ms");
+    }
+
+    /**
+     * {@return the address the server listens on, as configured in its {@code server.properties}}
+     */
+    private static InetSocketAddress serverAddress() {
+        var properties = new Properties();
+        try (var in = Files.newInputStream(Path.of("server.properties"))) {
+            properties.load(in);
+        } catch (IOException ignored) {
+            // The server uses the defaults until it writes its properties
+        }
+        int port = DEFAULT_PORT;
+        try {
+            port = Integer.parseInt(properties.getProperty("server-port", "").trim());
+        } catch (NumberFormatException ignored) {
+        }
+        var ip = properties.getProperty("server-ip", "").trim();
+        return ip.isEmpty() ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) : new InetSocketAddress(ip, port);
+    }
+
+    /**
+     * {@return whether the server accepts connections on the given address}
+     */
+    private static boolean isReady(InetSocketAddress address) {
+        try (var socket = new Socket()) {
+            socket.connect(address, (int) READINESS_POLL_MILLIS);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private long lastHeartbeat() {
+        try {
+            return Files.getLastModifiedTime(heartbeat).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void printSummary() {
+        if (restarts == 0 && crashes.isEmpty()) return;
+        final long average = (long) restartLatencies.stream().mapToLong(Long::longValue).average().orElse(0);
+        System.err.println("Supervisor: restarted the server " + restarts + " times (average restart latency " + average
+                + " ms), " + crashes.size() + " crashes in the last " + CRASH_LOOP_WINDOW_MILLIS / 60_000 + " minutes");
+    }
+
+    /**
+     * {@return the jar the starter runs from, which the child JVM loads as an agent}
+     */
+    @Nullable
+    private static Path starterJar() {
+        try {
+            var location = Path.of(Agent.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return Files.isRegularFile(location) ? location : null;
+        } catch (URISyntaxException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -2,10 +2,31 @@ package net.neoforged.serverstarterjar;
 
 import org.jetbrains.annotations.VisibleForTesting;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class Utils {
+    /**
+     * The most threads the starter runs a single job on.
+     */
+    static final int MAX_PARALLELISM = 8;
+
     private static final char ESCAPE = (char) 92; // \\
     private static final char SPACE = ' ';
     private static final char QUOTES = '"';
@@ -14,16 +35,38 @@ public class Utils {
     @VisibleForTesting
     static List<String> toArgs(String str) {
         final List<String> args = new ArrayList<>();
-        StringBuilder current = null;
+        toArgs(str.toCharArray(), 0, str.length(), new StringBuilder(), args::add);
+        return args;
+    }
+
+    /**
+     * Split the given range of characters in arguments, using the given builder for the token being read
+     * so that the only allocations are the arguments themselves.
+     */
+    static void toArgs(char[] chars, int start, int end, StringBuilder current, Consumer<String> args) {
+        current.setLength(0);
+        // Whether there is a token being read, which can be empty if it was opened by a quote
+        boolean inToken = false;
         char enclosing = 0;
 
-        final char[] chars = str.toCharArray();
-        for (int i = 0; i < chars.length; i++) {
-            final boolean isEscaped = i > 0 && chars[i - 1] == ESCAPE;
+        for (int i = start; i < end; i++) {
+            // Most characters are not special, so copy them in bulk
+            final int run = i;
+            while (i < end && !isSpecial(chars[i])) {
+                i++;
+            }
+            if (i > run) {
+                current.append(chars, run, i - run);
+                inToken = true;
+                if (i == end) break;
+            }
+
+            final boolean isEscaped = i > start && chars[i - 1] == ESCAPE;
             final char ch = chars[i];
-            if (ch == SPACE && enclosing == 0 && current != null) {
-                args.add(current.toString());
-                current = null;
+            if (ch == SPACE && enclosing == 0 && inToken) {
+                args.accept(current.toString());
+                current.setLength(0);
+                inToken = false;
                 continue;
             }
 
@@ -31,24 +74,152 @@ public class Utils {
                 if (ch == enclosing) {
                     enclosing = 0;
                     continue;
-                } else if ((ch == QUOTES || ch == SINGLE_QUOTES) && (current == null || current.toString().isBlank())) {
-                    current = new StringBuilder();
+                } else if ((ch == QUOTES || ch == SINGLE_QUOTES) && (!inToken || isBlank(current))) {
+                    current.setLength(0);
+                    inToken = true;
                     enclosing = ch;
                     continue;
                 }
             }
 
             // We have to add backslashes (the escape character) so long as we aren't actually escaping a quote
-            if (ch != ESCAPE || (i < chars.length - 1 && chars[i + 1] != QUOTES && chars[i + 1] != SINGLE_QUOTES)) {
-                if (current == null) current = new StringBuilder();
+            if (ch != ESCAPE || (i < end - 1 && chars[i + 1] != QUOTES && chars[i + 1] != SINGLE_QUOTES)) {
+                inToken = true;
                 current.append(ch);
             }
         }
 
-        if (current != null && enclosing == 0) {
-            args.add(current.toString());
+        if (inToken && enclosing == 0) {
+            args.accept(current.toString());
         }
+    }
 
-        return args;
+    /**
+     * {@return whether the character needs to go through the tokenizer rather than being simply appended}
+     * The null character is special, as it matches the absence of an enclosing quote.
+     */
+    private static boolean isSpecial(char ch) {
+        return ch == SPACE || ch == QUOTES || ch == SINGLE_QUOTES || ch == ESCAPE || ch == 0;
+    }
+
+    private static boolean isBlank(StringBuilder builder) {
+        for (int i = 0; i < builder.length(); i++) {
+            if (!Character.isWhitespace(builder.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read the arguments of an argument file, skipping the comment lines.
+     * The file is decoded at once and tokenized in place, line by line.
+     */
+    static void readArgsFile(Path argFile, Consumer<String> args) throws IOException {
+        final CharBuffer contents = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(Files.readAllBytes(argFile)));
+
+        final char[] chars = contents.array();
+        final int length = contents.arrayOffset() + contents.limit();
+        final var current = new StringBuilder();
+        int lineStart = contents.arrayOffset() + contents.position();
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && chars[lineEnd] != '\n' && chars[lineEnd] != '\r') {
+                lineEnd++;
+            }
+
+            // Ignore comments
+            if (lineEnd == lineStart || chars[lineStart] != '#') {
+                toArgs(chars, lineStart, lineEnd, current, args);
+            }
+
+            // Lines end with \n, \r or \r\n, like for Files#readAllLines
+            if (lineEnd + 1 < length && chars[lineEnd] == '\r' && chars[lineEnd + 1] == '\n') {
+                lineEnd++;
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    static void writeString(DataOutput out, String str) throws IOException {
+        // DataOutput#writeUTF is limited to 64KiB, which long class paths can exceed
+        var bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeStrings(DataOutput out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    static List<String> readStrings(DataInput in) throws IOException {
+        final int count = in.readInt();
+        var strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    /**
+     * Write a file by writing to a temporary sibling first and then moving it in place, so that
+     * an interrupted write never leaves a partial file behind.
+     */
+    static void writeAtomically(Path target, DataWriter writer) throws IOException {
+        var parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        var temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                writer.write(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * {@return how many threads to run the given number of tasks on}
+     * The starter never uses more than {@link #MAX_PARALLELISM} threads for a single job, and no more than one thread per
+     * processor for the work bound by the processors, so that it doesn't starve the server of them.
+     *
+     * @param cpuBound whether the work is bound by the processors, rather than by I/O
+     */
+    static int parallelism(int tasks, boolean cpuBound) {
+        final int max = cpuBound ? Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()) : MAX_PARALLELISM;
+        return Math.max(1, Math.min(tasks, max));
+    }
+
+    /**
+     * {@return a pool of the given number of daemon threads named with the given prefix}
+     */
+    static ExecutorService daemonPool(String prefix, int threads) {
+        return Executors.newFixedThreadPool(threads, daemonThreads(prefix));
+    }
+
+    /**
+     * {@return a thread factory creating daemon threads named with the given prefix}
+     * The starter's background work must never keep the server process alive on its own.
+     */
+    static ThreadFactory daemonThreads(String prefix) {
+        final var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    interface DataWriter {
+        void write(DataOutputStream out) throws IOException;
     }
 }
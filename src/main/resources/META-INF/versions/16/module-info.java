@@ -1,5 +1,6 @@
 module net.neoforged.serverstarterjar {
     requires java.base;
     requires java.instrument;
+    requires jdk.management;
     requires static org.jetbrains.annotations;
 }
@@ -2,7 +2,15 @@ package net.neoforged.serverstarterjar;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 public class ArgumentTests {
     @Test
@@ -19,4 +27,61 @@ public class ArgumentTests {
                         "%*"
                 );
     }
+
+    @Test
+    void testTokenizerQuirks() {
+        // A space only ends a token, so that consecutive spaces start a new one
+        assertThat(Utils.toArgs("a  b")).containsExactly("a", " b");
+        // A quote only starts a new token when the current one is blank
+        assertThat(Utils.toArgs("  \"x y\" z")).containsExactly(" ", "x y", "z");
+        assertThat(Utils.toArgs("ab\"c d\" e")).containsExactly("ab\"c", "d\"", "e");
+        // Unterminated quotes drop the token, and trailing escapes are dropped
+        assertThat(Utils.toArgs("'unterminated x")).isEmpty();
+        assertThat(Utils.toArgs("a\\")).containsExactly("a");
+        assertThat(Utils.toArgs("\"x'y' z\"")).containsExactly("x'y' z");
+    }
+
+    @Test
+    void testLaunchArguments() {
+        var args = LaunchArguments.parse(List.of(
+                "-p", "a.jar:b.jar", "--add-modules", "ALL-MODULE-PATH",
+                "--add-opens", "java.base/java.util.jar=cpw.mods.securejarhandler", "--add-opens=java.base/java.lang.invoke=ALL-UNNAMED",
+                "-Dfoo=bar=baz", "-Dempty", "-javaagent:agent.jar=opts", "-ea", "-cp", "c.jar",
+                "cpw.mods.bootstraplauncher.BootstrapLauncher", "--launchTarget", "forgeserver", "-Dnot=a property"
+        ));
+
+        assertThat(args.value(LaunchArguments.MODULE_PATH)).isEqualTo("a.jar:b.jar");
+        assertThat(args.value(LaunchArguments.CLASS_PATH)).isEqualTo("c.jar");
+        assertThat(args.values(LaunchArguments.ADD_OPENS)).containsExactly("java.base/java.util.jar=cpw.mods.securejarhandler", "java.base/java.lang.invoke=ALL-UNNAMED");
+        assertThat(args.systemProperties()).containsExactly(entry("foo", "bar=baz"), entry("empty", ""));
+        assertThat(args.javaAgents()).containsExactly("agent.jar=opts");
+        assertThat(args.otherOptions()).containsExactly("-ea");
+        assertThat(args.mainClass()).isEqualTo("cpw.mods.bootstraplauncher.BootstrapLauncher");
+        assertThat(args.programArgs()).containsExactly("--launchTarget", "forgeserver", "-Dnot=a property");
+
+        var jar = LaunchArguments.parse(List.of("-Dfoo=bar", "-jar", "server.jar", "nogui"));
+        assertThat(jar.jar()).isEqualTo("server.jar");
+        assertThat(jar.mainClass()).isNull();
+        assertThat(jar.programArgs()).containsExactly("nogui");
+    }
+
+    @Test
+    void testLaunchArgumentsRoundTrip() throws IOException {
+        var args = LaunchArguments.parse(List.of(
+                "-p", "a.jar:b.jar", "--add-opens=java.base/java.lang.invoke=ALL-UNNAMED", "-Dfoo=bar", "-javaagent:agent.jar",
+                "-ea", "cpw.mods.bootstraplauncher.BootstrapLauncher", "--launchTarget", "forgeserver"
+        ));
+        var bytes = new ByteArrayOutputStream();
+        args.write(new DataOutputStream(bytes));
+        var read = LaunchArguments.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(read.value(LaunchArguments.MODULE_PATH)).isEqualTo("a.jar:b.jar");
+        assertThat(read.values(LaunchArguments.ADD_OPENS)).containsExactly("java.base/java.lang.invoke=ALL-UNNAMED");
+        assertThat(read.systemProperties()).containsExactly(entry("foo", "bar"));
+        assertThat(read.javaAgents()).containsExactly("agent.jar");
+        assertThat(read.otherOptions()).containsExactly("-ea");
+        assertThat(read.jar()).isNull();
+        assertThat(read.mainClass()).isEqualTo("cpw.mods.bootstraplauncher.BootstrapLauncher");
+        assertThat(read.programArgs()).containsExactly("--launchTarget", "forgeserver");
+    }
 }
@@ -0,0 +1,65 @@
+package net.neoforged.serverstarterjar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachingJarInJarProviderTests {
+    @TempDir
+    Path dir;
+
+    @Test
+    void openedCopiesAreKeptAndStaleCopiesEvicted() throws IOException {
+        var nested = new ByteArrayOutputStream();
+        try (var out = new JarOutputStream(nested)) {
+            out.putNextEntry(new JarEntry("A.txt"));
+            out.write('a');
+        }
+        var outer = dir.resolve("outer.jar");
+        try (var out = new JarOutputStream(Files.newOutputStream(outer))) {
+            out.putNextEntry(new JarEntry("nested.jar"));
+            out.write(nested.toByteArray());
+        }
+
+        var store = dir.resolve("store");
+        var zipProvider = CachingJarInJarProvider.zipProvider(FileSystemProvider.installedProviders());
+        var provider = new CachingJarInJarProvider(store, zipProvider);
+        try (var outerFs = FileSystems.newFileSystem(outer);
+             var nestedFs = provider.newFileSystem(outerFs.getPath("nested.jar"), Map.of())) {
+            assertThat(Files.readString(nestedFs.getPath("A.txt"))).isEqualTo("a");
+        }
+
+        // A copy left by a previous launch, last opened long ago
+        var stale = Files.writeString(store.resolve("stale.jar"), "stale");
+        var staleMarker = Files.writeString(store.resolve("stale.jar.used"), "");
+        var longAgo = FileTime.from(Instant.now().minus(60, ChronoUnit.DAYS));
+        Files.setLastModifiedTime(stale, longAgo);
+        Files.setLastModifiedTime(staleMarker, longAgo);
+        // A copy the interrupted launch didn't get to open, but which was opened recently
+        var recent = Files.writeString(store.resolve("recent.jar"), "recent");
+        Files.writeString(store.resolve("recent.jar.used"), "");
+
+        provider.evictUnused();
+
+        assertThat(stale).doesNotExist();
+        assertThat(staleMarker).doesNotExist();
+        assertThat(recent).exists();
+        try (var copies = Files.newDirectoryStream(store, "*.jar")) {
+            assertThat(copies).hasSize(2);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package net.neoforged.serverstarterjar;
+
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassPathIndexTests {
+    @TempDir
+    Path dir;
+
+    @Test
+    void directoryOfEntries() {
+        assertThat(ClassPathIndex.directoryOf("a/b/C.class")).isEqualTo("a/b");
+        assertThat(ClassPathIndex.directoryOf("C.class")).isEqualTo("");
+        assertThat(ClassPathIndex.directoryOf("a/b/")).isEqualTo("a");
+        assertThat(ClassPathIndex.directoryOf("a/")).isEqualTo("");
+        assertThat(ClassPathIndex.directoryOf("META-INF/versions/9/a/C.class")).isEqualTo("META-INF/versions/9/a");
+    }
+
+    @Test
+    void multiReleaseJarsAreIndexedUnderTheirVersionedNames() throws IOException {
+        var jar = jar("mr.jar", true, Map.of(
+                "base/A.txt", "base",
+                "META-INF/versions/9/base/A.txt", "9",
+                "META-INF/versions/9/versioned/B.txt", "9"));
+
+        var directories = ClassPathIndex.load(dir.resolve("index.bin")).directories(jar);
+        assertThat(directories).contains("base", "versioned");
+        assertThat(directories).doesNotContain("META-INF/versions/9/base", "META-INF/versions/9/versioned");
+    }
+
+    @Test
+    void loaderReadsTheVersionedEntriesOfMultiReleaseJars() throws IOException {
+        var jar = jar("mr.jar", true, Map.of(
+                "base/A.txt", "base",
+                "META-INF/versions/9/base/A.txt", "9",
+                "META-INF/versions/9/versioned/B.txt", "9"));
+
+        var loader = new IndexedClassLoader(List.of(jar), ClassPathIndex.load(dir.resolve("index.bin")), ClassLoader.getPlatformClassLoader());
+        assertThat(read(loader, "base/A.txt")).isEqualTo("9");
+        assertThat(read(loader, "versioned/B.txt")).isEqualTo("9");
+    }
+
+    @Test
+    void jarsProvidingTheSameDirectoryAreSearchedInClassPathOrder() throws IOException {
+        var first = jar("first.jar", false, Map.of("shared/A.txt", "first"));
+        var second = jar("second.jar", false, Map.of("shared/A.txt", "second", "shared/B.txt", "second"));
+
+        var loader = new IndexedClassLoader(List.of(first, second), ClassPathIndex.load(dir.resolve("index.bin")), ClassLoader.getPlatformClassLoader());
+        assertThat(read(loader, "shared/A.txt")).isEqualTo("first");
+        assertThat(read(loader, "shared/B.txt")).isEqualTo("second");
+        assertThat(Collections.list(loader.getResources("shared/A.txt"))).hasSize(2);
+    }
+
+    @Test
+    void referencedJarsFollowTheJarReferencingThem() throws IOException {
+        Files.createDirectories(dir.resolve("libs"));
+        var nested = jar("libs/nested.jar", false, Map.of("shared/A.txt", "nested"), null);
+        var library = jar("libs/library.jar", false, Map.of("shared/B.txt", "library"), "nested.jar ../main.jar");
+        var main = jar("main.jar", false, Map.of(), "libs/library.jar missing.jar");
+        var other = jar("other.jar", false, Map.of("shared/A.txt", "other", "shared/C.txt", "other"), "libs/nested.jar");
+
+        var expanded = JarManifests.expandClassPath(List.of(main, other));
+        assertThat(expanded).containsExactly(main, library, nested, other);
+
+        var loader = new IndexedClassLoader(expanded, ClassPathIndex.load(dir.resolve("index.bin")), ClassLoader.getPlatformClassLoader());
+        assertThat(read(loader, "shared/A.txt")).isEqualTo("nested");
+        assertThat(read(loader, "shared/B.txt")).isEqualTo("library");
+        assertThat(read(loader, "shared/C.txt")).isEqualTo("other");
+    }
+
+    @Test
+    void changedJarsAreScannedAgain() throws IOException {
+        var file = dir.resolve("index.bin");
+        var jar = jar("a.jar", false, Map.of("before/A.txt", "a"));
+        var index = ClassPathIndex.load(file);
+        assertThat(index.directories(jar)).contains("before");
+        index.save();
+        assertThat(ClassPathIndex.load(file).directories(jar)).contains("before");
+
+        jar("a.jar", false, Map.of("after/A.txt", "a"));
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 10_000));
+        var directories = ClassPathIndex.load(file).directories(jar);
+        assertThat(directories).contains("after");
+        assertThat(directories).doesNotContain("before");
+    }
+
+    private Path jar(String name, boolean multiRelease, Map<String, String> entries) throws IOException {
+        return jar(name, multiRelease, entries, null);
+    }
+
+    private Path jar(String name, boolean multiRelease, Map<String, String> entries, @Nullable String classPath) throws IOException {
+        var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (multiRelease) {
+            manifest.getMainAttributes().put(Attributes.Name.MULTI_RELEASE, "true");
+        }
+        if (classPath != null) {
+            manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath);
+        }
+        var jar = dir.resolve(name);
+        try (var out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            for (var entry : entries.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static String read(ClassLoader loader, String name) throws IOException {
+        try (InputStream in = loader.getResourceAsStream(name)) {
+            assertThat(in).isNotNull();
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
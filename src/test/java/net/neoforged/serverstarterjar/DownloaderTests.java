@@ -0,0 +1,170 @@
+package net.neoforged.serverstarterjar;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DownloaderTests {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] contents = new byte[SEGMENT_SIZE * 4 + 123];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean supportRanges = new AtomicBoolean(true);
+    private final AtomicBoolean failOnce = new AtomicBoolean();
+    private volatile String sha1;
+    private HttpServer server;
+
+    @BeforeEach
+    void start() throws Exception {
+        new Random(42).nextBytes(contents);
+        var file = dir.resolve("reference.jar");
+        Files.write(file, contents);
+        sha1 = Downloader.hash(file, "SHA-1");
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/installer.jar", this::serveFile);
+        server.createContext("/installer.jar.sha1", exchange -> {
+            var body = (sha1 + "  installer.jar").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void testParallelDownload() throws Exception {
+        var target = dir.resolve("installer.jar");
+        Downloader.download(url(), target, 4, SEGMENT_SIZE);
+
+        assertThat(target).hasBinaryContent(contents);
+        assertThat(ranges).hasSize(4).allMatch(range -> range.startsWith("bytes="));
+        assertThat(dir.resolve("installer.jar.part")).doesNotExist();
+        assertThat(dir.resolve("installer.jar.part.state")).doesNotExist();
+    }
+
+    @Test
+    void testDownloadWithoutRanges() throws Exception {
+        supportRanges.set(false);
+        var target = dir.resolve("installer.jar");
+        Downloader.download(url(), target, 4, SEGMENT_SIZE);
+
+        assertThat(target).hasBinaryContent(contents);
+        assertThat(ranges).containsOnlyNulls();
+    }
+
+    @Test
+    void testResumeAfterInterruption() throws Exception {
+        var target = dir.resolve("installer.jar");
+        failOnce.set(true);
+        // A single connection, so that the interrupted segment has to be resumed rather than restarted
+        Downloader.download(url(), target, 1, SEGMENT_SIZE);
+
+        assertThat(target).hasBinaryContent(contents);
+        assertThat(ranges).hasSize(2);
+        assertThat(ranges.get(0)).isNull();
+        assertThat(ranges.get(1)).isEqualTo("bytes=" + SEGMENT_SIZE + "-" + (contents.length - 1));
+    }
+
+    @Test
+    void testChecksumMismatch() throws Exception {
+        sha1 = "0000000000000000000000000000000000000000";
+        var target = dir.resolve("installer.jar");
+
+        assertThatThrownBy(() -> Downloader.download(url(), target, 4, SEGMENT_SIZE))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Checksum mismatch");
+        assertThat(target).doesNotExist();
+        assertThat(dir.resolve("installer.jar.part")).doesNotExist();
+        assertThat(Downloader.isVerified(url(), target)).isFalse();
+    }
+
+    @Test
+    void testVerifiedUntilChanged() throws Exception {
+        var target = dir.resolve("installer.jar");
+        Downloader.download(url(), target, 4, SEGMENT_SIZE);
+        assertThat(Downloader.isVerified(url(), target)).isTrue();
+
+        Files.write(target, new byte[] { 1, 2, 3 });
+        assertThat(Downloader.isVerified(url(), target)).isFalse();
+    }
+
+    private URL url() throws Exception {
+        return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/installer.jar").toURL();
+    }
+
+    private void serveFile(HttpExchange exchange) throws IOException {
+        // Contexts match on the path prefix, so make sure that the .sha256 isn't served the file
+        if (!exchange.getRequestURI().getPath().equals("/installer.jar")) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        if (supportRanges.get()) {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        }
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(contents.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        var range = supportRanges.get() ? exchange.getRequestHeaders().getFirst("Range") : null;
+        ranges.add(range);
+        int start = 0, end = contents.length - 1;
+        if (range != null) {
+            var bounds = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(bounds[0]);
+            end = Integer.parseInt(bounds[1]);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + contents.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+        } else {
+            exchange.sendResponseHeaders(200, contents.length);
+        }
+
+        if (failOnce.compareAndSet(true, false)) {
+            // Drop the connection after the first segment worth of bytes
+            try {
+                exchange.getResponseBody().write(contents, start, SEGMENT_SIZE);
+                exchange.getResponseBody().flush();
+                exchange.close();
+            } catch (IOException ignored) {
+                // The server complains that the response is short, which is what we want
+            }
+            return;
+        }
+
+        exchange.getResponseBody().write(contents, start, end - start + 1);
+        exchange.close();
+    }
+}
@@ -0,0 +1,158 @@
+package net.neoforged.serverstarterjar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ParallelInstallerTests {
+    private static final InstallProfile PROFILE = new InstallProfile(List.of(), "1.0", null, Map.of(), List.of());
+    private static final Map<String, String> DATA = Map.of("ROOT", "/srv", "MINECRAFT_VERSION", "1.0");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReplaceTokens() {
+        assertThat(ParallelInstaller.replaceTokens(DATA, "{ROOT}/server-{MINECRAFT_VERSION}.jar")).isEqualTo("/srv/server-1.0.jar");
+        assertThat(ParallelInstaller.replaceTokens(DATA, "no placeholders")).isEqualTo("no placeholders");
+        // Quoted text is kept as is, without the quotes
+        assertThat(ParallelInstaller.replaceTokens(DATA, "'{ROOT}'/{ROOT}")).isEqualTo("{ROOT}//srv");
+        assertThat(ParallelInstaller.replaceTokens(DATA, "\\{ROOT\\}")).isEqualTo("{ROOT}");
+    }
+
+    @Test
+    void testReplaceTokensRejectsInvalidPatterns() {
+        assertThatThrownBy(() -> ParallelInstaller.replaceTokens(DATA, "{MISSING}"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Missing data for placeholder MISSING");
+        assertThatThrownBy(() -> ParallelInstaller.replaceTokens(DATA, "{ROOT"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("unclosed");
+        assertThatThrownBy(() -> ParallelInstaller.replaceTokens(DATA, "trailing\\"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("bad escape");
+    }
+
+    @Test
+    void testResolveData() throws IOException {
+        var installer = installer(Map.of("data/server.lzma", "patch"));
+        var temp = Files.createDirectories(dir.resolve("temp"));
+        try (var jar = new JarFile(installer.toFile())) {
+            var parallelInstaller = new ParallelInstaller(installer, PROFILE, dir.resolve("libraries"), null, jar);
+
+            assertThat(parallelInstaller.resolveData("[org.ex:lib:1:mappings@txt]", temp))
+                    .isEqualTo(dir.resolve("libraries").toAbsolutePath().resolve("org/ex/lib/1/lib-1-mappings.txt").toString());
+            assertThat(parallelInstaller.resolveData("'literal'", temp)).isEqualTo("literal");
+
+            var extracted = parallelInstaller.resolveData("/data/server.lzma", temp);
+            assertThat(extracted).isEqualTo(temp.resolve("data/server.lzma").toString());
+            assertThat(Path.of(extracted)).hasContent("patch");
+
+            assertThatThrownBy(() -> parallelInstaller.resolveData("/data/missing.lzma", temp))
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("/data/missing.lzma");
+        }
+    }
+
+    @Test
+    void testStepsSharingFilesDependOnEachOther() {
+        var patch = step(1, "--input", "{ROOT}/vanilla.jar", "--output", "{ROOT}/patched.jar");
+        var remap = step(2, "--input", "{ROOT}/patched.jar", "--output", "{ROOT}/remapped.jar");
+        var unrelated = step(3, "--input", "{ROOT}/other.jar", "--output", "{ROOT}/other-out.jar");
+        // Reads a file an earlier step produces
+        assertThat(remap.dependsOn(patch)).isTrue();
+        assertThat(unrelated.dependsOn(patch)).isFalse();
+        assertThat(unrelated.dependsOn(remap)).isFalse();
+
+        // Produces a file an earlier step reads
+        var overwrite = step(4, "--output", "{ROOT}/other.jar");
+        assertThat(overwrite.dependsOn(unrelated)).isTrue();
+    }
+
+    @Test
+    void testStepsProducingFoldersDependOnTheirContents() {
+        var extract = step(1, "--input", "{ROOT}/vanilla.jar", "--output", "{ROOT}/extracted");
+        var read = step(2, "--input", "{ROOT}/extracted/server.jar", "--output", "{ROOT}/server.jar");
+        assertThat(read.dependsOn(extract)).isTrue();
+
+        var sibling = step(3, "--input", "{ROOT}/extracted-other/server.jar", "--output", "{ROOT}/other.jar");
+        assertThat(sibling.dependsOn(extract)).isFalse();
+    }
+
+    @Test
+    void testStepsWithoutOutputsRunInOrder() {
+        var patch = step(1, "--input", "{ROOT}/vanilla.jar", "--output", "{ROOT}/patched.jar");
+        var unknown = step(2, "--task", "DOWNLOAD", "{ROOT}/anything");
+        var unrelated = step(3, "--input", "{ROOT}/other.jar", "--output", "{ROOT}/other-out.jar");
+        assertThat(unknown.dependsOn(patch)).isTrue();
+        assertThat(unrelated.dependsOn(unknown)).isTrue();
+    }
+
+    @Test
+    void testArgsFiles() {
+        var script = """
+                #!/usr/bin/env sh
+                # Add custom JVM arguments to the user_jvm_args.txt
+                java @user_jvm_args.txt @libraries/net/neoforged/neoforge/21.0.1/unix_args.txt "$@"
+                """;
+        assertThat(ParallelInstaller.argsFiles(script)).containsExactly("libraries/net/neoforged/neoforge/21.0.1/unix_args.txt");
+    }
+
+    @Test
+    void testExtractLaunchFiles() throws IOException {
+        var installer = installer(Map.of(
+                "data/run.sh", "java @user_jvm_args.txt @libraries/net/neoforged/neoforge/2.0/unix_args.txt \"$@\"\n",
+                "data/unix_args.txt", "-cp app.jar\nex.App\n",
+                "data/user_jvm_args.txt", "# defaults\n"));
+        var root = Files.createDirectories(dir.resolve("server"));
+        Files.writeString(root.resolve("user_jvm_args.txt"), "-Xmx4G\n");
+        try (var jar = new JarFile(installer.toFile())) {
+            assertThat(new ParallelInstaller(installer, PROFILE, root.resolve("libraries"), null, jar).extractLaunchFiles(root)).isTrue();
+        }
+
+        assertThat(root.resolve("run.sh")).hasContent("java @user_jvm_args.txt @libraries/net/neoforged/neoforge/2.0/unix_args.txt \"$@\"\n");
+        assertThat(root.resolve("libraries/net/neoforged/neoforge/2.0/unix_args.txt")).hasContent("-cp app.jar\nex.App\n");
+        // The user's JVM arguments are kept
+        assertThat(root.resolve("user_jvm_args.txt")).hasContent("-Xmx4G\n");
+    }
+
+    @Test
+    void testExtractLaunchFilesWithoutArgsFile() throws IOException {
+        var installer = installer(Map.of("data/run.sh", "java @user_jvm_args.txt @libraries/net/neoforged/neoforge/2.0/unix_args.txt \"$@\"\n"));
+        var root = Files.createDirectories(dir.resolve("server"));
+        try (var jar = new JarFile(installer.toFile())) {
+            assertThat(new ParallelInstaller(installer, PROFILE, root.resolve("libraries"), null, jar).extractLaunchFiles(root)).isFalse();
+        }
+        // The run script marks the server as installed, so it is only written once everything else is
+        assertThat(root.resolve("run.sh")).doesNotExist();
+    }
+
+    private ParallelInstaller.Step step(int index, String... args) {
+        var processor = new InstallProfile.Processor("org.ex:processor:1", List.of(), List.of(args), Map.of());
+        return ParallelInstaller.Step.of(index, processor, DATA, dir.resolve("libraries"));
+    }
+
+    private Path installer(Map<String, String> entries) throws IOException {
+        var installer = dir.resolve("installer.jar");
+        try (var out = new JarOutputStream(Files.newOutputStream(installer))) {
+            for (var entry : entries.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return installer;
+    }
+}
@@ -0,0 +1,51 @@
+package net.neoforged.serverstarterjar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SupervisorTests {
+    @TempDir
+    Path dir;
+
+    @Test
+    void testNormalStop() {
+        // No crash reports folder at all
+        assertThat(Supervisor.crashReason(0, dir.resolve("crash-reports"), System.currentTimeMillis())).isNull();
+    }
+
+    @Test
+    void testNonZeroExitCodeIsACrash() {
+        assertThat(Supervisor.crashReason(1, dir.resolve("crash-reports"), System.currentTimeMillis()))
+                .isEqualTo("crashed with exit code 1");
+    }
+
+    @Test
+    void testNewCrashReportIsACrash() throws IOException {
+        final long startedAt = System.currentTimeMillis();
+        var reports = Files.createDirectories(dir.resolve("crash-reports"));
+        var report = Files.writeString(reports.resolve("crash-2024-05-01_10.00.00-server.txt"), "Description: Exception in server tick loop");
+        Files.setLastModifiedTime(report, FileTime.fromMillis(startedAt + 5000));
+
+        assertThat(Supervisor.crashReason(0, reports, startedAt)).startsWith("crashed with exit code 0 (see ");
+    }
+
+    @Test
+    void testOldCrashReportsAreIgnored() throws IOException {
+        final long startedAt = System.currentTimeMillis();
+        var reports = Files.createDirectories(dir.resolve("crash-reports"));
+        var report = Files.writeString(reports.resolve("crash-2024-05-01_10.00.00-server.txt"), "");
+        Files.setLastModifiedTime(report, FileTime.fromMillis(startedAt - 60_000));
+        // Only server crash reports count
+        var other = Files.writeString(reports.resolve("crash-2024-05-01_10.00.00-client.txt"), "");
+        Files.setLastModifiedTime(other, FileTime.fromMillis(startedAt + 5000));
+
+        assertThat(Supervisor.crashReason(0, reports, startedAt)).isNull();
+    }
+}